@@ -0,0 +1,47 @@
+package com.csapps.equalvolume;
+
+import android.content.Context;
+import android.media.AudioManager;
+
+/**
+ * The volume backend of the device, all the calls go to the system AudioManager
+ */
+public class AudioManagerBackend implements VolumeBackend {
+
+   /* System resources */
+   private AudioManager  mAudioManager = null;
+   private VolumeStreams mStreams      = null;
+
+   /**
+    * @param context The context to get the AudioManager from
+    * @param streams The registry translating the "EqualVolume" stream IDs
+    */
+   public AudioManagerBackend(Context context, VolumeStreams streams) {
+
+      // Get the system Audio Manager
+      mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+
+      mStreams = streams;
+   }
+
+   @Override
+   public int getStreamCount() {
+      return mStreams.getStreamCount();
+   }
+
+   @Override
+   public int getStreamVolume(int streamID) {
+      return mAudioManager.getStreamVolume(mStreams.getOSStreamID(streamID));
+   }
+
+   @Override
+   public int getStreamMaxVolume(int streamID) {
+      return mAudioManager.getStreamMaxVolume(mStreams.getOSStreamID(streamID));
+   }
+
+   @Override
+   public void setStreamVolume(int streamID, int volume, boolean vibrate) {
+      mAudioManager.setStreamVolume(mStreams.getOSStreamID(streamID), volume, ( vibrate ) ? AudioManager.FLAG_VIBRATE : 0);
+   }
+
+} // End of public class AudioManagerBackend
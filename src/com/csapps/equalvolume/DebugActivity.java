@@ -0,0 +1,89 @@
+package com.csapps.equalvolume;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Shows the metrics report of the sync service. Binds without starting the service and leaves
+ * the sync listener to the main activity.
+ */
+public class DebugActivity extends Activity {
+
+   /* UI resources */
+   private TextView mMetricsText = null;
+
+   /* Volume Sync Service Resources */
+   private VolumeSyncService  mSyncService       = null;
+   private ServiceConnection  mServiceConnection = null;
+   private boolean            mBound             = false;
+
+   @Override
+   protected void onCreate(Bundle savedInstanceState) {
+      super.onCreate(savedInstanceState);
+
+      setContentView(R.layout.activity_debug);
+
+      mMetricsText = (TextView)findViewById(R.id.textView_metrics);
+
+      findViewById(R.id.button_refresh).setOnClickListener(new View.OnClickListener() {
+
+         @Override
+         public void onClick(View view) {
+            showMetrics();
+         }
+      });
+
+      // Connection to the sync service
+      mServiceConnection = new ServiceConnection() {
+
+         @Override
+         public void onServiceConnected(ComponentName name, IBinder service) {
+
+            mSyncService = ((VolumeSyncService.LocalBinder)service).getService();
+
+            showMetrics();
+         }
+
+         @Override
+         public void onServiceDisconnected(ComponentName name) {
+            mSyncService = null;
+         }
+      };
+   }
+
+   @Override
+   protected void onStart() {
+      super.onStart();
+
+      mBound = bindService(new Intent(this, VolumeSyncService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
+   }
+
+   @Override
+   protected void onStop() {
+
+      mSyncService = null;
+
+      if ( mBound ) {
+         unbindService(mServiceConnection);
+         mBound = false;
+      }
+
+      super.onStop();
+   }
+
+   // Shows the current report of the service
+   private void showMetrics() {
+
+      if ( mSyncService != null ) {
+         mMetricsText.setText(mSyncService.getMetricsReport());
+      }
+   }
+
+} // End of public class DebugActivity
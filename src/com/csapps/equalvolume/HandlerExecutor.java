@@ -0,0 +1,27 @@
+package com.csapps.equalvolume;
+
+import android.os.Handler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks on the thread of a Handler, e.g. to deliver the bus events on the UI thread
+ */
+public class HandlerExecutor implements Executor {
+
+   /* System resources */
+   private final Handler mHandler;
+
+   /**
+    * @param handler The handler of the thread to run on
+    */
+   public HandlerExecutor(Handler handler) {
+      mHandler = handler;
+   }
+
+   @Override
+   public void execute(Runnable task) {
+      mHandler.post(task);
+   }
+
+} // End of public class HandlerExecutor
@@ -0,0 +1,49 @@
+package com.csapps.equalvolume;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * A TaskScheduler on top of a Handler. The pending tasks are messages in the looper's queue, so
+ * the scheduler holds no thread of its own and never keeps the CPU awake. Every message
+ * dispatched through the handler counts as a fire.
+ */
+public class HandlerTaskScheduler extends Handler implements TaskScheduler {
+
+   /* Variables */
+   private volatile long mFireCount = 0;
+
+   /**
+    * @param looper The looper the tasks run on
+    */
+   public HandlerTaskScheduler(Looper looper) {
+      super(looper);
+   }
+
+   @Override
+   public void dispatchMessage(Message msg) {
+
+      mFireCount++;
+      super.dispatchMessage(msg);
+   }
+
+   @Override
+   public void schedule(Runnable task, long delayMillis) {
+
+      // Only one pending run at a time
+      removeCallbacks(task);
+      postDelayed(task, delayMillis);
+   }
+
+   @Override
+   public void cancel(Runnable task) {
+      removeCallbacks(task);
+   }
+
+   @Override
+   public long getFireCount() {
+      return mFireCount;
+   }
+
+} // End of public class HandlerTaskScheduler
@@ -1,247 +1,311 @@
 package com.csapps.equalvolume;
 
 import android.app.Activity;
-import android.app.Notification;
-import android.app.NotificationManager;
+import android.content.ComponentName;
 import android.content.Context;
-import android.media.AudioManager;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
 import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.SeekBar;
 import android.widget.Toast;
 
-public class MainActivity extends Activity {
+public class MainActivity extends Activity implements SyncListenerSubscriber.OnSyncListener {
 
-   /* Volume Stream Constants */
-   static final int INVALID_STREAM              = -1;
-   static final int VOLUME_STREAM_RING_TONE     =  0;
-   static final int VOLUME_STREAM_MUSIC         =  1;
-   static final int VOLUME_STREAM_NOTIFICATIONS =  2;
-   static final int VOLUME_STREAM_SYSTEM_SOUNDS =  3;
-   static final int VOLUME_STREAM_VOICE_CALLS   =  4;
-   static final int MAX_VOLUME_STREAMS          =  5;
+   /* Constants */
+   static final private int API_LEVEL_JELLY_BEAN = 16;
+   static final private int MENU_GROUP_PRESETS   = 1;
 
-   /* UI resources */
+   /* UI resources (indexed by OS stream ID) */
+   private View    []    mOSStreamLabels;
+   private SeekBar []    mOSStreamSeekBars;
+   private CheckBox[]    mOSStreamCheckBoxes;
+
+   /* UI resources (indexed by "EqualVolume" stream ID, once the service is bound) */
    private SeekBar [] 	 mStreamSeekBars;
    private CheckBox[]    mCheckBoxes;
-
-   /* System resources */
-   private AudioManager  mAudioManager = null;
+   private VolumeStreams mVolumeStreams = null;
 
    /* Variables */
-   private int []        mStreamMaxVolumes;
-   private int []        mAdjustSteps;
    private boolean       mCreationComplete = false;
-
-   /* Volume Observer Resources */
-   private VolumeObserver  mVolumeObserver  = null;
-   private ForeverTask     mForeverTask     = null;
-   private int             mCallCount       = 0;
-
-   /* Logging Variables */
-   private final boolean PRINT_LOG_STMTS   = true;
-   
-   /* Notification Resources */
-   private Notification.Builder mEqualVolumeNB       = null;
-   private NotificationManager  mNotificationManager = null;
-   private int                  mNotificationID      = 0;
+   private long          mCreateTime       = 0;
+   private boolean       mFirstLevelsShown = false;
+   private Toast         mSentinelToast    = null;
+
+   /* Rendering Variables */
+   private int []        mRenderedLevels   = null;
+   private int []        mRenderedMax      = null;
+   private VolumeLevels  mPendingLevels    = null;
+   private long          mPendingSyncTime  = 0; // End of the oldest sync not rendered yet (0 if none)
+   private boolean       mRenderScheduled  = false;
+   private Runnable      mRenderTask       = null;
+   private Object        mFrameCallback    = null; // Choreographer.FrameCallback from API 16
+
+   /* Volume Sync Service Resources */
+   private VolumeSyncService  mSyncService       = null;
+   private ServiceConnection  mServiceConnection = null;
+   private Runnable           mBindTask          = null;
+   private boolean            mBound             = false;
 
    @Override
    protected void onCreate(Bundle savedInstanceState) {
       super.onCreate(savedInstanceState);
 
+      mCreateTime = SystemClock.uptimeMillis();
+
       setContentView(R.layout.activity_main);
 
       if ( !mCreationComplete ) {
 
          // Create stuff
          createEverything();
-         
-         // Start a forever running task
-         startForeverTask();
-         
+
          mCreationComplete = true;
       }
    }
    
-   /* Starts the forever task */
-   public void startForeverTask() {
+   /** 
+    * Creates/gathers all the resources necessary for the app
+    * @param none
+    * */
+   private void createEverything() {
+
+      // Create the arrays of the stream rows
+      mOSStreamLabels     = new View    [VolumeStreams.MAX_OS_STREAM_ID + 1];
+      mOSStreamSeekBars   = new SeekBar [VolumeStreams.MAX_OS_STREAM_ID + 1];
+      mOSStreamCheckBoxes = new CheckBox[VolumeStreams.MAX_OS_STREAM_ID + 1];
+
+      addStreamRow(VolumeStreams.OS_STREAM_RING,          R.id.textView_ring_tone,     R.id.seekBar_ring_tone,     R.id.checkBox_ring_tone);
+      addStreamRow(VolumeStreams.OS_STREAM_MUSIC,         R.id.textView_music,         R.id.seekBar_music,         R.id.checkBox_music);
+      addStreamRow(VolumeStreams.OS_STREAM_NOTIFICATION,  R.id.textView_notifications, R.id.seekBar_notifications, R.id.checkBox_notifications);
+      addStreamRow(VolumeStreams.OS_STREAM_SYSTEM,        R.id.textView_system_sounds, R.id.seekBar_system_sounds, R.id.checkBox_system_sounds);
+      addStreamRow(VolumeStreams.OS_STREAM_VOICE_CALL,    R.id.textView_voice_calls,   R.id.seekBar_voice_calls,   R.id.checkBox_voice_calls);
+      addStreamRow(VolumeStreams.OS_STREAM_ALARM,         R.id.textView_alarm,         R.id.seekBar_alarm,         R.id.checkBox_alarm);
+      addStreamRow(VolumeStreams.OS_STREAM_DTMF,          R.id.textView_dtmf,          R.id.seekBar_dtmf,          R.id.checkBox_dtmf);
+      addStreamRow(VolumeStreams.OS_STREAM_ACCESSIBILITY, R.id.textView_accessibility, R.id.seekBar_accessibility, R.id.checkBox_accessibility);
+
+      // Connection to the sync service
+      mServiceConnection = new ServiceConnection() {
+
+         @Override
+         public void onServiceConnected(ComponentName name, IBinder service) {
+
+            mSyncService = ((VolumeSyncService.LocalBinder)service).getService();
+            mSyncService.setOnSyncListener(MainActivity.this);
+
+            // Match the rows to the streams registered by the service
+            bindStreamRows(mSyncService.getVolumeStreams());
+
+            // Show the state kept by the service
+            for ( int streamID = 0; streamID < mVolumeStreams.getStreamCount(); ++streamID ) {
+               mCheckBoxes[streamID].setChecked(mSyncService.isStreamEnabled(streamID));
+            }
+
+            // Update current volume levels UI (the service calls back once it has them otherwise)
+            updateCurrentVolumeLevels(mSyncService.getVolumeLevels(), 0);
+         }
+
+         @Override
+         public void onServiceDisconnected(ComponentName name) {
+            mSyncService = null;
+         }
+      };
+
+      // Renders the latest levels, once per frame whatever the number of syncs
+      mRenderTask = new Runnable() {
+
+         @Override
+         public void run() {
+            renderPendingLevels();
+         }
+      };
+
+      if ( Build.VERSION.SDK_INT >= API_LEVEL_JELLY_BEAN ) {
+         mFrameCallback = new Choreographer.FrameCallback() {
+
+            @Override
+            public void doFrame(long frameTimeNanos) {
+               renderPendingLevels();
+            }
+         };
+      }
+
+      // Starts and binds the sync service, deferred until after the first frame
+      mBindTask = new Runnable() {
+
+         @Override
+         public void run() {
+
+            // Start the sync service (it outlives the activity and keeps the app resident)
+            startService(new Intent(MainActivity.this, VolumeSyncService.class));
+
+            mBound = bindService(new Intent(MainActivity.this, VolumeSyncService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
+         }
+      };
 
-      // Start the task
-      mForeverTask.execute();
    }
-   
-   // The call back that is used to keep the app in memory and running
-   public void foreverTaskCallback() {
 
-      // Increment a place holder, useless, variable
-      mCallCount++;
+   /**
+    * Gathers the views of a stream row
+    * @param osStreamID The OS' version of the 'stream ID' shown in the row
+    * @param labelID The resource ID of the label
+    * @param seekBarID The resource ID of the seek bar
+    * @param checkBoxID The resource ID of the check box
+    */
+   private void addStreamRow(int osStreamID, int labelID, int seekBarID, int checkBoxID) {
+
+      mOSStreamLabels    [osStreamID] = findViewById(labelID);
+      mOSStreamSeekBars  [osStreamID] = (SeekBar)findViewById(seekBarID);
+      mOSStreamCheckBoxes[osStreamID] = (CheckBox)findViewById(checkBoxID);
+
+      // Make the progress bars "read-only"
+      mOSStreamSeekBars[osStreamID].setEnabled(false);
    }
-   
-   /** 
-    * Returns the "EqualVolume" version of the 'stream ID'
-    * @param osStreamID The value of the OS' version of the 'stream ID'
-    * */
-   public int getEqualVolumeStreamID(int osStreamID) {
-
-      int equalVolStreamID = VOLUME_STREAM_RING_TONE;
-
-      switch ( osStreamID ) {
-         default:
-         case AudioManager.STREAM_MUSIC:
-            break;
-         case AudioManager.STREAM_NOTIFICATION:
-            equalVolStreamID = VOLUME_STREAM_NOTIFICATIONS;
-            break;
-         case AudioManager.STREAM_SYSTEM:
-            equalVolStreamID = VOLUME_STREAM_SYSTEM_SOUNDS;
-            break;
-         case AudioManager.STREAM_VOICE_CALL:
-            equalVolStreamID = VOLUME_STREAM_VOICE_CALLS;
-            break;
-         case AudioManager.STREAM_RING:
-            osStreamID = VOLUME_STREAM_RING_TONE;
-            break;
+
+   /**
+    * Indexes the rows by "EqualVolume" stream ID and hides the rows of the streams not registered
+    * @param volumeStreams The registry of the service
+    */
+   private void bindStreamRows(VolumeStreams volumeStreams) {
+
+      if ( mVolumeStreams == volumeStreams ) {
+         return;
       }
 
-      return equalVolStreamID;
-   }
+      mVolumeStreams  = volumeStreams;
+      mStreamSeekBars = new SeekBar [volumeStreams.getStreamCount()];
+      mCheckBoxes     = new CheckBox[volumeStreams.getStreamCount()];
+      mRenderedLevels = new int[volumeStreams.getStreamCount()];
+      mRenderedMax    = new int[volumeStreams.getStreamCount()];
 
-   /** 
-    * Returns the OS' version of the 'stream ID'
-    * @param equalVolStreamID The value of "EqualVolume" version of the 'stream ID'
-    * */
-   public int getOSStreamID(int equalVolStreamID) {
-
-      int osStreamID = AudioManager.STREAM_MUSIC;
-
-      switch ( equalVolStreamID ) {
-         default:
-         case VOLUME_STREAM_MUSIC:
-            break;
-         case VOLUME_STREAM_NOTIFICATIONS:
-            osStreamID = AudioManager.STREAM_NOTIFICATION;
-            break;
-         case VOLUME_STREAM_SYSTEM_SOUNDS:
-            osStreamID = AudioManager.STREAM_SYSTEM;
-            break;
-         case VOLUME_STREAM_VOICE_CALLS:
-            osStreamID = AudioManager.STREAM_VOICE_CALL;
-            break;
-         case VOLUME_STREAM_RING_TONE:
-            osStreamID = AudioManager.STREAM_RING;
-            break;
+      // Nothing rendered yet, every bar is dirty
+      for ( int streamID = 0; streamID < mRenderedLevels.length; ++streamID ) {
+         mRenderedLevels[streamID] = -1;
+         mRenderedMax   [streamID] = -1;
       }
 
-      return osStreamID;
-   }
+      for ( int osStreamID = 0; osStreamID <= VolumeStreams.MAX_OS_STREAM_ID; ++osStreamID ) {
+
+         if ( mOSStreamSeekBars[osStreamID] == null ) {
+            continue;
+         }
+
+         int streamID   = volumeStreams.getStreamID(osStreamID);
+         int visibility = ( streamID == VolumeStreams.INVALID_STREAM ) ? View.GONE : View.VISIBLE;
+
+         mOSStreamLabels    [osStreamID].setVisibility(visibility);
+         mOSStreamSeekBars  [osStreamID].setVisibility(visibility);
+         mOSStreamCheckBoxes[osStreamID].setVisibility(visibility);
+
+         if ( streamID == VolumeStreams.INVALID_STREAM ) {
+            continue;
+         }
+
+         mStreamSeekBars[streamID] = mOSStreamSeekBars[osStreamID];
+         mCheckBoxes    [streamID] = mOSStreamCheckBoxes[osStreamID];
+
+         // Pass the picked streams on to the service
+         final int checkedStreamID = streamID;
+         mCheckBoxes[streamID].setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+               if ( mSyncService != null ) {
+                  mSyncService.setStreamEnabled(checkedStreamID, isChecked);
+               }
+            }
+         });
+      }
+   } // End of bindStreamRows
 
    /** 
-    * Creates/gathers all the resources necessary for the app
-    * @param none
+    * Updates the volume levels of the streams on the next frame. Several updates within a frame
+    * are rendered once, with the latest levels.
+    * @param volumeLevels The levels handed over by the sync service
+    * @param syncTime The time (System.nanoTime()) the sync ended, 0 if the levels do not come from a sync
     * */
-   private void createEverything() {
-      // Get the AudioManager
-      mAudioManager = (AudioManager) this.getSystemService(Context.AUDIO_SERVICE);
-      
-      // Get the NotificationManager
-      mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-      
-      mEqualVolumeNB = new Notification.Builder(getApplicationContext())
-      .setSmallIcon(R.drawable.ic_launcher)
-      .setContentTitle("Equal Volume")
-      .setContentText("Restart Application")
-      .setTicker("App kicked out of memory by Android. Please restart.");
-
-      // Create the seek bar array
-      mStreamSeekBars = new SeekBar[MAX_VOLUME_STREAMS];
-      mCheckBoxes     = new CheckBox[MAX_VOLUME_STREAMS];
-
-      mStreamSeekBars[VOLUME_STREAM_RING_TONE]     = (SeekBar)findViewById(R.id.seekBar_ring_tone);
-      mStreamSeekBars[VOLUME_STREAM_MUSIC]         = (SeekBar)findViewById(R.id.seekBar_music);
-      mStreamSeekBars[VOLUME_STREAM_NOTIFICATIONS] = (SeekBar)findViewById(R.id.seekBar_notifications);
-      mStreamSeekBars[VOLUME_STREAM_SYSTEM_SOUNDS] = (SeekBar)findViewById(R.id.seekBar_system_sounds);
-      mStreamSeekBars[VOLUME_STREAM_VOICE_CALLS]   = (SeekBar)findViewById(R.id.seekBar_voice_calls);
-
-      mCheckBoxes[VOLUME_STREAM_RING_TONE]         = (CheckBox)findViewById(R.id.checkBox_ring_tone);
-      mCheckBoxes[VOLUME_STREAM_MUSIC]             = (CheckBox)findViewById(R.id.checkBox_music);
-      mCheckBoxes[VOLUME_STREAM_NOTIFICATIONS]     = (CheckBox)findViewById(R.id.checkBox_notifications);
-      mCheckBoxes[VOLUME_STREAM_SYSTEM_SOUNDS]     = (CheckBox)findViewById(R.id.checkBox_system_sounds);
-      mCheckBoxes[VOLUME_STREAM_VOICE_CALLS]       = (CheckBox)findViewById(R.id.checkBox_voice_calls);
-
-      // Create the max volume array
-      mStreamMaxVolumes = new int[MAX_VOLUME_STREAMS];
-
-      // Create the volume adjust steps array
-      mAdjustSteps = new int[MAX_VOLUME_STREAMS];
-
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-
-         // Fetch stream maximums
-         mStreamMaxVolumes[streamID] = mAudioManager.getStreamMaxVolume(getOSStreamID(streamID));
-         mAdjustSteps     [streamID] = 1;
-         
-         if ( streamID == VOLUME_STREAM_MUSIC ) {
-            mAdjustSteps [streamID] = 2;
-         }
+   private void updateCurrentVolumeLevels(VolumeLevels volumeLevels, long syncTime) {
 
-         // Make the progress bars "read-only"
-         mStreamSeekBars[streamID].setEnabled(false);
+      if ( volumeLevels == null || mStreamSeekBars == null ) {
+         return;
+      }
 
-         // Check all the boxes
-         mCheckBoxes[streamID].setChecked(true);
+      mPendingLevels = volumeLevels;
 
-         if ( PRINT_LOG_STMTS ) Log.v("Equal Volume", "mStreamMaxVolumes["+streamID+"] = "+mStreamMaxVolumes[streamID]);
+      // The UI latency counts from the first sync the render shows
+      if ( mPendingSyncTime == 0 ) {
+         mPendingSyncTime = syncTime;
       }
 
-      // Figure out the minimum volume 
-      int minVol = mStreamMaxVolumes[VOLUME_STREAM_RING_TONE];
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-         if ( mStreamMaxVolumes[streamID] < minVol ) {
-            minVol = mStreamMaxVolumes[streamID];
-         }
+      if ( mRenderScheduled ) {
+         return;
       }
 
-      // Figure out adjust steps for each stream
-      /*for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-         mAdjustSteps[streamID] = (mStreamMaxVolumes[streamID] / minVol);
+      mRenderScheduled = true;
 
-         if ( PRINT_LOG_STMTS ) Log.v("Equal Volume", "mAdjustSteps[= "+streamID+"] = "+mAdjustSteps[streamID]);
-      }*/
+      if ( mFrameCallback != null ) {
+         Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback)mFrameCallback);
+      } else {
+         getWindow().getDecorView().post(mRenderTask);
+      }
+   }
+
+   /**
+    * Renders the pending levels, touching only the bars whose level or maximum changed since the
+    * last render (the dirty bits)
+    */
+   private void renderPendingLevels() {
 
-      // Fetch stream maximums and set the seek bar maximums
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-         mStreamMaxVolumes[streamID] = mAudioManager.getStreamMaxVolume(getOSStreamID(streamID));
-         mStreamSeekBars[streamID].setMax(mStreamMaxVolumes[streamID]);
+      VolumeLevels volumeLevels = mPendingLevels;
+      long         syncTime     = mPendingSyncTime;
 
-         if ( PRINT_LOG_STMTS ) Log.v("Equal Volume", "mStreamMaxVolumes["+streamID+"] = "+mStreamMaxVolumes[streamID]);
+      mPendingLevels   = null;
+      mPendingSyncTime = 0;
+      mRenderScheduled = false;
+
+      if ( volumeLevels == null || mStreamSeekBars == null ) {
+         return;
       }
 
-      // Create the volume observer
-      mVolumeObserver = new VolumeObserver(this, new Handler());
+      if ( !mFirstLevelsShown ) {
+         mFirstLevelsShown = true;
 
-      // Update current volume levels UI
-      updateCurrentVolumeLevels();
-      
-      // Create the forever task object
-      mForeverTask = new ForeverTask(this);
-   }
+         if ( TraceLog.isVerbose() ) Log.v("Equal Volume", "Cold start to first levels (ms) = "+( SystemClock.uptimeMillis() - mCreateTime ));
+      }
 
-   /** 
-    * Updates the volume levels of all the streams
-    * @param none
-    * */
-   private void updateCurrentVolumeLevels() {
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-         int currentVolume = mAudioManager.getStreamVolume(getOSStreamID(streamID));
-         mStreamSeekBars[streamID].setProgress(currentVolume);
+      int dirtyMask = 0;
 
-         if ( PRINT_LOG_STMTS ) Log.v("Equal Volume", "currentVolume of streamID ["+streamID+"] = "+currentVolume);
-         if ( PRINT_LOG_STMTS ) Log.v("Equal Volume", "mStreamSeekBars["+streamID+"] progress = "+mStreamSeekBars[streamID].getProgress());
+      for ( int streamID = 0; streamID < volumeLevels.getStreamCount(); ++streamID ) {
+         if ( volumeLevels.getLevel(streamID) != mRenderedLevels[streamID] || volumeLevels.getMaxVolume(streamID) != mRenderedMax[streamID] ) {
+            dirtyMask |= ( 1 << streamID );
+         }
       }
-   }
+
+      for ( ; dirtyMask != 0; dirtyMask &= dirtyMask - 1 ) {
+
+         int streamID = Integer.numberOfTrailingZeros(dirtyMask);
+
+         mRenderedLevels[streamID] = volumeLevels.getLevel(streamID);
+         mRenderedMax   [streamID] = volumeLevels.getMaxVolume(streamID);
+
+         mStreamSeekBars[streamID].setMax(mRenderedMax[streamID]);
+         mStreamSeekBars[streamID].setProgress(mRenderedLevels[streamID]);
+      }
+
+      // Time from the end of the sync to the levels shown
+      if ( syncTime != 0 && mSyncService != null ) {
+         mSyncService.recordUiLatency(System.nanoTime() - syncTime);
+      }
+   } // End of renderPendingLevels
 
    @Override
    protected void onPostCreate(Bundle savedInstanceState) {
@@ -249,119 +313,141 @@ public class MainActivity extends Activity {
    }
 
    @Override
-   protected void onPause() {
-      super.onPause();
-      
+   protected void onStart() {
+      super.onStart();
+
+      // Bind to the sync service while visible, once the first frame is out
+      getWindow().getDecorView().post(mBindTask);
    }
-   
+
+   @Override
+   protected void onStop() {
+
+      // Drop the UI listener and the binding, the service keeps syncing
+      getWindow().getDecorView().removeCallbacks(mBindTask);
+      cancelRender();
+
+      if ( mSyncService != null ) {
+         mSyncService.setOnSyncListener(null);
+         mSyncService = null;
+      }
+
+      if ( mBound ) {
+         unbindService(mServiceConnection);
+         mBound = false;
+      }
+
+      super.onStop();
+   }
+
+   // Drops the frame callback (if any) of the pending render
+   private void cancelRender() {
+
+      if ( !mRenderScheduled ) {
+         return;
+      }
+
+      if ( mFrameCallback != null ) {
+         Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback)mFrameCallback);
+      } else {
+         getWindow().getDecorView().removeCallbacks(mRenderTask);
+      }
+
+      mPendingLevels   = null;
+      mPendingSyncTime = 0;
+      mRenderScheduled = false;
+   }
+
    @Override
    protected void onResume() {
       super.onResume();
 
       // Update current volume levels UI
-      updateCurrentVolumeLevels();
+      if ( mSyncService != null ) {
+         updateCurrentVolumeLevels(mSyncService.getVolumeLevels(), 0);
+      }
    }
 
    @Override
-   protected void onDestroy() {
+   public boolean onCreateOptionsMenu(Menu menu) {
 
-      // Throw the notification
-      mNotificationManager.notify(mNotificationID++, mEqualVolumeNB.build());
+      getMenuInflater().inflate(R.menu.main, menu);
+      return true;
    }
 
-   private void checkForSentinelLevels() {
+   @Override
+   public boolean onPrepareOptionsMenu(Menu menu) {
 
-      boolean anyStreamAtMax = false;
-      boolean anyStreamAtMin = false;
+      // The presets come from the service, list them again on every opening
+      menu.removeGroup(MENU_GROUP_PRESETS);
 
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
+      if ( mSyncService != null ) {
 
-         int streamVolume = mAudioManager.getStreamVolume(getOSStreamID(streamID));
+         String [] presetNames = mSyncService.getPresetNames();
 
-         if ( mCheckBoxes[streamID].isChecked() ) {
-            if ( streamVolume == mStreamMaxVolumes[streamID]) {
-               anyStreamAtMax = true;
-            } else if (streamVolume == 0) {
-               anyStreamAtMin = true;
-            }
+         for ( int index = 0; index < presetNames.length; ++index ) {
+            menu.add(MENU_GROUP_PRESETS, Menu.FIRST + index, index, getString(R.string.menu_preset, presetNames[index]));
          }
       }
 
-      if ( anyStreamAtMin || anyStreamAtMax ) {
+      return super.onPrepareOptionsMenu(menu);
+   }
 
-         if ( anyStreamAtMax ) {
+   @Override
+   public boolean onOptionsItemSelected(MenuItem item) {
 
-            for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
+      if ( item.getItemId() == R.id.action_debug ) {
 
-               if ( mCheckBoxes[streamID].isChecked() ) {
-                  mAudioManager.setStreamVolume(getOSStreamID(streamID), mStreamMaxVolumes[streamID], AudioManager.FLAG_VIBRATE);	
-               }
-            } // End of for
-
-            Toast.makeText(this, "Volume Maximum!", Toast.LENGTH_SHORT).show();
-         } else if ( anyStreamAtMin ) {
+         // Show the metrics of the sync service
+         startActivity(new Intent(this, DebugActivity.class));
+         return true;
+      }
 
-            for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
+      if ( item.getGroupId() == MENU_GROUP_PRESETS && mSyncService != null ) {
 
-               if ( mCheckBoxes[streamID].isChecked() ) {
-                  mAudioManager.setStreamVolume(getOSStreamID(streamID), 0, AudioManager.FLAG_VIBRATE);
-               }
-            } // End of for
+         // The items are in the order of the names
+         String [] presetNames = mSyncService.getPresetNames();
+         int       index       = item.getItemId() - Menu.FIRST;
 
-            Toast.makeText(this, "Volume Minimum!", Toast.LENGTH_SHORT).show();
+         if ( index < presetNames.length ) {
+            mSyncService.applyPreset(presetNames[index]);
          }
-
-         // Update current volume levels UI
-         updateCurrentVolumeLevels();
+         return true;
       }
+
+      return super.onOptionsItemSelected(item);
    }
 
    /**
-    * Handles the "volume" button key-presses
-    * @param volumeUp Boolean variable which is 'true' if the volume has increased from before, 'false' otherwise
+    * Called by the sync service (on the UI thread) after the streams have been synced
+    * @param volumeLevels The levels of the streams after the sync
+    * @param syncTime The time (System.nanoTime()) the sync ended
     */
-   private void handleKeyPress(boolean volumeUp, int changedOSStreamID) {
-
-      int changedEqualVolumeStreamID = getEqualVolumeStreamID(changedOSStreamID);
-      
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-
-         if ( mCheckBoxes[streamID].isChecked() ) {
-
-            // Skip the stream that caused the event
-            if ( streamID != changedEqualVolumeStreamID ) {
-               for ( int adjustSteps = 1; adjustSteps <= mAdjustSteps[streamID]; ++adjustSteps ) {
-                  mAudioManager.adjustStreamVolume(getOSStreamID(streamID), ( volumeUp ) ? AudioManager.ADJUST_RAISE : AudioManager.ADJUST_LOWER, AudioManager.FLAG_VIBRATE);
-               }
-            }
+   @Override
+   public void onVolumesSynced(VolumeLevels volumeLevels, long syncTime) {
 
-            mStreamSeekBars[streamID].setProgress(mAudioManager.getStreamVolume(getOSStreamID(streamID)));
-         } // End of if
+      // Only the transitions into "max" or "min" come with a sentinel
+      if ( volumeLevels.getSentinel() != VolumeSyncEngine.SENTINEL_NONE ) {
+         showSentinel(( volumeLevels.getSentinel() == VolumeSyncEngine.SENTINEL_MAX ) ? "Volume Maximum!" : "Volume Minimum!");
+      }
 
-      } // End of for
+      // Update current volume levels UI
+      updateCurrentVolumeLevels(volumeLevels, syncTime);
    }
 
    /**
-    * Handles the volume change performed either within or outside the app
-    * @param volumeUp Boolean variable which is 'true' if the volume has increased from before, 'false' otherwise
+    * Shows the sentinel message, reusing the one toast (a new message replaces the one shown)
+    * @param message The message to show
     */
-   public void handleVolumeChange(boolean volumeUp, int changedOSStreamID) {
+   private void showSentinel(String message) {
 
-      if ( PRINT_LOG_STMTS ) {
-         Log.v("Equal Volume", "*** handleVolumeChange() Called");
+      if ( mSentinelToast == null ) {
+         mSentinelToast = Toast.makeText(this, message, Toast.LENGTH_SHORT);
+      } else {
+         mSentinelToast.setText(message);
       }
 
-      // Handle the key-press
-      handleKeyPress(volumeUp, changedOSStreamID);
-
-      // Check if any stream has reached "max" or "min"
-      checkForSentinelLevels();
-
-      // Update the previous volume array
-      mVolumeObserver.updatePreviousVolumes();
-
-      // Register for the next volume observer callback
-      mVolumeObserver.registerVolumeObserverHandler();
+      mSentinelToast.show();
    }
 
 } // End of public class MainActivity
@@ -0,0 +1,246 @@
+package com.csapps.equalvolume;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the volume presets in one small binary file, loaded lazily on the first use. Per preset
+ * the file holds the name, a mask of the OS streams with a target and one byte per target, so a
+ * preset costs a few bytes. A missing or damaged file gives the built-in presets.
+ */
+public class PresetStore {
+
+   /* Constants */
+   static final private int     MAGIC          = 0x45515650; // "EQVP"
+   static final private byte    FORMAT_VERSION = 1;
+   static final private int     MAX_FILE_SIZE  = 16 * 1024;
+   static final private Charset UTF_8          = Charset.forName("UTF-8");
+
+   /* Variables */
+   private File            mFile;
+   private VolumePreset [] mPresets = null;
+
+   /**
+    * @param file The file holding the presets
+    */
+   public PresetStore(File file) {
+      mFile = file;
+   }
+
+   /**
+    * @return the presets (loaded on the first call)
+    */
+   public synchronized VolumePreset [] getPresets() {
+
+      if ( mPresets == null ) {
+
+         mPresets = load();
+
+         if ( mPresets == null ) {
+            mPresets = createDefaults();
+            save(mPresets);
+         }
+      }
+
+      return mPresets;
+   }
+
+   /**
+    * @return the names of the presets, in order
+    */
+   public String [] getNames() {
+
+      VolumePreset [] presets = getPresets();
+      String []       names   = new String[presets.length];
+
+      for ( int index = 0; index < presets.length; ++index ) {
+         names[index] = presets[index].getName();
+      }
+
+      return names;
+   }
+
+   /**
+    * @param name The name of the preset
+    * @return the preset, null if there is none with the name
+    */
+   public VolumePreset getPreset(String name) {
+
+      for ( VolumePreset preset : getPresets() ) {
+         if ( preset.getName().equals(name) ) {
+            return preset;
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Saves the presets, replacing the file in one rename
+    * @param presets The presets to save
+    * @return 'true' if the presets were saved
+    */
+   public synchronized boolean save(VolumePreset [] presets) {
+
+      int size = 4 + 1 + 1;
+      byte [][] names = new byte[presets.length][];
+
+      for ( int index = 0; index < presets.length; ++index ) {
+         names[index] = presets[index].getName().getBytes(UTF_8);
+         size += 1 + names[index].length + 2 + getTargetCount(presets[index]);
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+
+      buffer.putInt(MAGIC);
+      buffer.put(FORMAT_VERSION);
+      buffer.put((byte)presets.length);
+
+      for ( int index = 0; index < presets.length; ++index ) {
+
+         buffer.put((byte)names[index].length);
+         buffer.put(names[index]);
+
+         int targetMask = 0;
+         for ( int osStreamID = 0; osStreamID <= VolumeStreams.MAX_OS_STREAM_ID; ++osStreamID ) {
+            if ( presets[index].getPercent(osStreamID) != VolumePreset.NO_TARGET ) {
+               targetMask |= ( 1 << osStreamID );
+            }
+         }
+
+         buffer.putShort((short)targetMask);
+
+         for ( int streamMask = targetMask; streamMask != 0; streamMask &= streamMask - 1 ) {
+            buffer.put((byte)presets[index].getPercent(Integer.numberOfTrailingZeros(streamMask)));
+         }
+      }
+
+      mPresets = presets;
+
+      File             tempFile = new File(mFile.getPath() + ".tmp");
+      FileOutputStream output   = null;
+      try {
+         output = new FileOutputStream(tempFile);
+         output.write(buffer.array());
+      } catch (IOException e) {
+         return false;
+      } finally {
+         close(output);
+      }
+
+      return tempFile.renameTo(mFile);
+   } // End of save
+
+   // Reads the presets in one read, null if there are none or the file is damaged
+   private VolumePreset [] load() {
+
+      if ( !mFile.isFile() || mFile.length() > MAX_FILE_SIZE ) {
+         return null;
+      }
+
+      byte [] data = new byte[(int)mFile.length()];
+
+      RandomAccessFile file = null;
+      try {
+         file = new RandomAccessFile(mFile, "r");
+         file.readFully(data);
+      } catch (IOException e) {
+         return null;
+      } finally {
+         close(file);
+      }
+
+      try {
+         return decode(ByteBuffer.wrap(data));
+      } catch (RuntimeException e) {
+         // Damaged file (truncated, bad sizes)
+         return null;
+      }
+   } // End of load
+
+   // Decodes the content of the file
+   private static VolumePreset [] decode(ByteBuffer buffer) {
+
+      if ( buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION ) {
+         return null;
+      }
+
+      VolumePreset [] presets = new VolumePreset[buffer.get() & 0xFF];
+
+      for ( int index = 0; index < presets.length; ++index ) {
+
+         byte [] name = new byte[buffer.get() & 0xFF];
+         buffer.get(name);
+
+         int [] percents   = new int[VolumeStreams.MAX_OS_STREAM_ID + 1];
+         int    targetMask = buffer.getShort() & 0xFFFF;
+
+         for ( int osStreamID = 0; osStreamID < percents.length; ++osStreamID ) {
+            percents[osStreamID] = ( ( targetMask & ( 1 << osStreamID ) ) != 0 ) ? buffer.get() & 0xFF : VolumePreset.NO_TARGET;
+         }
+
+         presets[index] = new VolumePreset(new String(name, UTF_8), percents);
+      }
+
+      return presets;
+   } // End of decode
+
+   // The presets shipped with the app
+   private static VolumePreset [] createDefaults() {
+
+      return new VolumePreset[] {
+         createPreset("meeting", 0, 0, 0, 0, VolumePreset.NO_TARGET, VolumePreset.NO_TARGET),
+         createPreset("car", 100, 70, 30, 80, 100, VolumePreset.NO_TARGET),
+         createPreset("night", 20, 0, 0, 30, VolumePreset.NO_TARGET, 70),
+      };
+   }
+
+   // A preset from the targets of the usual streams (percent, or NO_TARGET)
+   private static VolumePreset createPreset(String name, int ring, int notification, int system, int music, int voiceCall, int alarm) {
+
+      int [] percents = new int[VolumeStreams.MAX_OS_STREAM_ID + 1];
+
+      for ( int osStreamID = 0; osStreamID < percents.length; ++osStreamID ) {
+         percents[osStreamID] = VolumePreset.NO_TARGET;
+      }
+
+      percents[VolumeStreams.OS_STREAM_RING]         = ring;
+      percents[VolumeStreams.OS_STREAM_NOTIFICATION] = notification;
+      percents[VolumeStreams.OS_STREAM_SYSTEM]       = system;
+      percents[VolumeStreams.OS_STREAM_MUSIC]        = music;
+      percents[VolumeStreams.OS_STREAM_VOICE_CALL]   = voiceCall;
+      percents[VolumeStreams.OS_STREAM_ALARM]        = alarm;
+
+      return new VolumePreset(name, percents);
+   }
+
+   private static int getTargetCount(VolumePreset preset) {
+
+      int count = 0;
+
+      for ( int osStreamID = 0; osStreamID <= VolumeStreams.MAX_OS_STREAM_ID; ++osStreamID ) {
+         if ( preset.getPercent(osStreamID) != VolumePreset.NO_TARGET ) {
+            count++;
+         }
+      }
+
+      return count;
+   }
+
+   private static void close(Closeable closeable) {
+
+      if ( closeable != null ) {
+         try {
+            closeable.close();
+         } catch (IOException e) {
+            // Nothing left to do
+         }
+      }
+   }
+
+} // End of public class PresetStore
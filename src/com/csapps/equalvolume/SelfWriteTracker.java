@@ -0,0 +1,106 @@
+package com.csapps.equalvolume;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells our own volume writes apart from the external changes. Every write we make is tagged with
+ * its expected level before it is issued; when the detection later sees a stream at exactly that
+ * level, the change is ours and is not synced again. When the level read back right after the write
+ * is another one, the platform clamped (e.g. the voice call volume never goes below 1) or refused
+ * (e.g. the ring volume in Do Not Disturb) it, and the tag moves to the level the platform kept.
+ * Any other level is an external change. All the state is atomic, no locks are taken.
+ */
+public class SelfWriteTracker {
+
+   /* Constants */
+   static final int NO_EXPECTATION = -1;
+
+   /* Variables */
+   private final AtomicIntegerArray mExpectedLevels;
+   private final AtomicLong         mSelfWriteCount = new AtomicLong();
+   private final AtomicLong         mOverrideCount  = new AtomicLong();
+   private final AtomicLong         mClampCount     = new AtomicLong();
+
+   /**
+    * @param streamCount The number of streams
+    */
+   public SelfWriteTracker(int streamCount) {
+
+      mExpectedLevels = new AtomicIntegerArray(streamCount);
+
+      for ( int streamID = 0; streamID < streamCount; ++streamID ) {
+         mExpectedLevels.set(streamID, NO_EXPECTATION);
+      }
+   }
+
+   /**
+    * Tags a write, called right before the write is issued
+    * @param streamID The "EqualVolume" stream ID
+    * @param level The level being written
+    */
+   public void expect(int streamID, int level) {
+      mExpectedLevels.set(streamID, level);
+   }
+
+   /**
+    * Moves the tag of a write to the level read back right after it, when the platform did not
+    * take the written level as is
+    * @param streamID The "EqualVolume" stream ID
+    * @param level The level the platform kept
+    */
+   public void expectClamped(int streamID, int level) {
+
+      mExpectedLevels.set(streamID, level);
+      mClampCount.incrementAndGet();
+   }
+
+   /**
+    * Checks an observed level against the pending tag of the stream and clears the tag. A tag is
+    * only cleared if it was not replaced by a newer write in the meantime.
+    * @param streamID The "EqualVolume" stream ID
+    * @param observedLevel The level read from the backend
+    * @return 'true' if the level is the result of our own write
+    */
+   public boolean consume(int streamID, int observedLevel) {
+
+      int expectedLevel = mExpectedLevels.get(streamID);
+
+      if ( expectedLevel == NO_EXPECTATION ) {
+         return false;
+      }
+
+      mExpectedLevels.compareAndSet(streamID, expectedLevel, NO_EXPECTATION);
+
+      if ( expectedLevel == observedLevel ) {
+         mSelfWriteCount.incrementAndGet();
+         return true;
+      }
+
+      // Someone else changed the stream after our write
+      mOverrideCount.incrementAndGet();
+      return false;
+   } // End of consume
+
+   /**
+    * @return the number of observed levels recognized as our own writes
+    */
+   public long getSelfWriteCount() {
+      return mSelfWriteCount.get();
+   }
+
+   /**
+    * @return the number of our writes overridden by an external change
+    */
+   public long getOverrideCount() {
+      return mOverrideCount.get();
+   }
+
+   /**
+    * @return the number of our writes read back at another level (clamped or refused by the platform)
+    */
+   public long getClampCount() {
+      return mClampCount.get();
+   }
+
+} // End of public class SelfWriteTracker
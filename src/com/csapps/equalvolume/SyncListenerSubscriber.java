@@ -0,0 +1,51 @@
+package com.csapps.equalvolume;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Hands the synced levels to the UI listener. Only a weak reference to the listener is kept, so a
+ * listener that is never cleared does not keep its activity (and the view tree) alive. Subscribe
+ * it on the UI thread; results already queued look the listener up when they run.
+ */
+public class SyncListenerSubscriber implements VolumeEventBus.Subscriber {
+
+   /**
+    * Callback of the UI bound to the service
+    */
+   public interface OnSyncListener {
+
+      /**
+       * Called on the UI thread after the streams have been synced
+       * @param volumeLevels The levels of the streams after the sync
+       * @param syncTime The time (System.nanoTime()) the sync ended, the UI latency is measured from it
+       */
+      void onVolumesSynced(VolumeLevels volumeLevels, long syncTime);
+   }
+
+   /* Variables */
+   private volatile WeakReference<OnSyncListener> mListener = null;
+
+   /**
+    * Sets (or clears, with null) the listener
+    * @param listener The listener to call after every sync
+    */
+   public void setOnSyncListener(OnSyncListener listener) {
+      mListener = ( listener != null ) ? new WeakReference<OnSyncListener>(listener) : null;
+   }
+
+   @Override
+   public void onVolumeEvent(VolumeEvent event) {
+
+      if ( event.getType() != VolumeEvent.TYPE_STREAMS_SYNCED ) {
+         return;
+      }
+
+      WeakReference<OnSyncListener> listenerReference = mListener;
+      OnSyncListener                listener          = ( listenerReference != null ) ? listenerReference.get() : null;
+
+      if ( listener != null ) {
+         listener.onVolumesSynced(event.getVolumeLevels(), event.getTime());
+      }
+   } // End of onVolumeEvent
+
+} // End of public class SyncListenerSubscriber
@@ -0,0 +1,150 @@
+package com.csapps.equalvolume;
+
+import java.io.PrintWriter;
+
+/**
+ * Counters and latencies of the sync pipeline: the detection of a change (notification to changed
+ * mask), the sync itself (the engine writes and the sentinel check), the end-to-end time (first
+ * notification to all the streams equalized), the AudioManager calls spent per event and the
+ * preset switches.
+ * Recording takes primitives only and never allocates, the text is built by the report.
+ */
+public class SyncMetrics implements VolumeEventBus.Subscriber {
+
+   /* Constants */
+   static final private int MAX_TRACKED_IPC = 32; // Larger counts share the last slot
+
+   /* Variables */
+   private long                   mDetectionCount  = 0;
+   private long                   mSyncCount       = 0;
+   private long                   mSentinelCount   = 0;
+   private long                   mIpcTotal        = 0;
+   private long                   mPendingSince    = 0;
+   private long                   mPresetCount     = 0;
+   private long                   mPresetWrites    = 0;
+   private final long []          mIpcCounts       = new long[MAX_TRACKED_IPC + 1];
+   private final LatencyHistogram mDetectLatency   = new LatencyHistogram();
+   private final LatencyHistogram mSyncLatency     = new LatencyHistogram();
+   private final LatencyHistogram mEndToEndLatency = new LatencyHistogram();
+   private final LatencyHistogram mUiLatency       = new LatencyHistogram();
+   private final LatencyHistogram mPresetLatency   = new LatencyHistogram();
+
+   /**
+    * Records a detected change
+    * @param notifyTime The time (System.nanoTime()) the check was requested
+    * @param detectTime The time the changed mask was known
+    */
+   public synchronized void recordDetection(long notifyTime, long detectTime) {
+
+      mDetectionCount++;
+      mDetectLatency.record(detectTime - notifyTime);
+
+      // The end-to-end time starts with the first change not yet synced
+      if ( mPendingSince == 0 ) {
+         mPendingSince = notifyTime;
+      }
+   }
+
+   /**
+    * Records a sync of the streams
+    * @param startTime The time (System.nanoTime()) the sync started
+    * @param endTime The time all the streams were written
+    * @param ipcCount The number of AudioManager calls of the sync (the detection passes excluded)
+    * @param sentinel 'true' if a sentinel level was entered
+    */
+   public synchronized void recordSync(long startTime, long endTime, int ipcCount, boolean sentinel) {
+
+      mSyncCount++;
+      mIpcTotal += ipcCount;
+      mIpcCounts[Math.min(ipcCount, MAX_TRACKED_IPC)]++;
+      mSyncLatency.record(endTime - startTime);
+
+      if ( sentinel ) {
+         mSentinelCount++;
+      }
+
+      if ( mPendingSince != 0 ) {
+         mEndToEndLatency.record(endTime - mPendingSince);
+         mPendingSince = 0;
+      }
+   }
+
+   /**
+    * Records a preset switch
+    * @param nanos The duration in nanoseconds (lookup and writes)
+    * @param writeCount The number of streams written
+    */
+   public synchronized void recordPresetSwitch(long nanos, int writeCount) {
+
+      mPresetCount++;
+      mPresetWrites += writeCount;
+      mPresetLatency.record(nanos);
+   }
+
+   /**
+    * Records the detections and the syncs published on the event bus (subscribe on the publishing thread)
+    * @param event The event
+    */
+   @Override
+   public void onVolumeEvent(VolumeEvent event) {
+
+      if ( event.getType() == VolumeEvent.TYPE_CHANGE_DETECTED ) {
+         recordDetection(event.getStartTime(), event.getTime());
+      } else if ( event.getChangedMask() != 0 ) {
+         recordSync(event.getStartTime(), event.getTime(), event.getIpcCount(), event.getSentinel() != VolumeSyncEngine.SENTINEL_NONE);
+      }
+   }
+
+   /**
+    * Records the time the UI took to show a sync
+    * @param nanos The duration in nanoseconds, from the end of the sync to the end of the render
+    */
+   public synchronized void recordUi(long nanos) {
+      mUiLatency.record(nanos);
+   }
+
+   /**
+    * @return the mean number of AudioManager calls per sync
+    */
+   public synchronized double getIpcPerEvent() {
+      return ( mSyncCount == 0 ) ? 0 : (double)mIpcTotal / mSyncCount;
+   }
+
+   /**
+    * Writes the counters and the latency percentiles as text
+    * @param writer The writer to report to
+    */
+   public synchronized void writeReport(PrintWriter writer) {
+
+      writer.println("Detections = "+mDetectionCount+", syncs = "+mSyncCount+", sentinels = "+mSentinelCount);
+      writer.println("Preset switches = "+mPresetCount+", writes = "+mPresetWrites);
+      writer.println("IPC per event = "+String.format("%.2f", getIpcPerEvent()));
+
+      writer.print("IPC per event histogram (calls:events):");
+      for ( int ipcCount = 0; ipcCount <= MAX_TRACKED_IPC; ++ipcCount ) {
+         if ( mIpcCounts[ipcCount] != 0 ) {
+            writer.print(" "+ipcCount+( ( ipcCount == MAX_TRACKED_IPC ) ? "+" : "" )+":"+mIpcCounts[ipcCount]);
+         }
+      }
+      writer.println();
+
+      writeLatency(writer, "Detection", mDetectLatency);
+      writeLatency(writer, "Sync", mSyncLatency);
+      writeLatency(writer, "End-to-end", mEndToEndLatency);
+      writeLatency(writer, "UI", mUiLatency);
+      writeLatency(writer, "Preset switch", mPresetLatency);
+   } // End of writeReport
+
+   // Writes one latency line, in microseconds
+   private static void writeLatency(PrintWriter writer, String name, LatencyHistogram histogram) {
+
+      writer.println(name+" latency (us): count = "+histogram.getCount()
+            +", mean = "+histogram.getMean()/1000
+            +", p50 = "+histogram.getPercentile(50)/1000
+            +", p90 = "+histogram.getPercentile(90)/1000
+            +", p99 = "+histogram.getPercentile(99)/1000
+            +", p99.9 = "+histogram.getPercentile(99.9)/1000
+            +", max = "+histogram.getMax()/1000);
+   }
+
+} // End of public class SyncMetrics
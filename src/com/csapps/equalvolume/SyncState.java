@@ -0,0 +1,95 @@
+package com.csapps.equalvolume;
+
+/**
+ * The persisted state of the sync: the registered streams, which of them are synced, their
+ * maximums, the level mapping built from those and the last known levels.
+ */
+public final class SyncState {
+
+   /* Variables */
+   private final int []         mOSStreamIDs;
+   private final int []         mMaxVolumes;
+   private final int []         mLevels;
+   private final int            mEnabledMask;
+   private final VolumeLevelMap mLevelMap;
+
+   /**
+    * @param osStreamIDs The OS stream ID of every "EqualVolume" stream
+    * @param maxVolumes The maximum volume of every stream
+    * @param levels The last known level of every stream
+    * @param enabledMask The mask of the synced streams (bit "n" set for stream "n")
+    * @param levelMap The level mapping built from the maximums
+    */
+   public SyncState(int [] osStreamIDs, int [] maxVolumes, int [] levels, int enabledMask, VolumeLevelMap levelMap) {
+
+      mOSStreamIDs = osStreamIDs;
+      mMaxVolumes  = maxVolumes;
+      mLevels      = levels;
+      mEnabledMask = enabledMask;
+      mLevelMap    = levelMap;
+   }
+
+   /**
+    * @param streams The registry to check against
+    * @return 'true' if the state was saved for the same streams, in the same slots
+    */
+   public boolean matches(VolumeStreams streams) {
+
+      if ( streams.getStreamCount() != mOSStreamIDs.length ) {
+         return false;
+      }
+
+      for ( int streamID = 0; streamID < mOSStreamIDs.length; ++streamID ) {
+         if ( streams.getOSStreamID(streamID) != mOSStreamIDs[streamID] ) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   /**
+    * @return the number of streams
+    */
+   public int getStreamCount() {
+      return mOSStreamIDs.length;
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the OS stream ID of the stream
+    */
+   public int getOSStreamID(int streamID) {
+      return mOSStreamIDs[streamID];
+   }
+
+   /**
+    * @return the maximum volume of every stream (not to be modified)
+    */
+   public int [] getMaxVolumes() {
+      return mMaxVolumes;
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the last known level of the stream
+    */
+   public int getLevel(int streamID) {
+      return mLevels[streamID];
+   }
+
+   /**
+    * @return the mask of the synced streams (bit "n" set for stream "n")
+    */
+   public int getEnabledMask() {
+      return mEnabledMask;
+   }
+
+   /**
+    * @return the level mapping
+    */
+   public VolumeLevelMap getLevelMap() {
+      return mLevelMap;
+   }
+
+} // End of public final class SyncState
@@ -0,0 +1,201 @@
+package com.csapps.equalvolume;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the SyncState in one small binary file. Loading is a single read of the whole file,
+ * everything is an unsigned byte per value (levels up to 255) except the header and the mask. A missing, stale or damaged
+ * file loads as null and the state is rebuilt from the device. The state is keyed on the build
+ * fingerprint, so an OEM update dropping or adding volume steps never reuses the old maximums.
+ */
+public class SyncStateStore {
+
+   /* Constants */
+   static final private int     MAGIC          = 0x45515653; // "EQVS"
+   static final private byte    FORMAT_VERSION = 2;
+   static final private int     MAX_FILE_SIZE  = 64 * 1024;
+   static final private int     MAX_STREAM_COUNT = 31; // One bit per stream in the masks
+   static final private Charset UTF_8          = Charset.forName("UTF-8");
+
+   /* Variables */
+   private File mFile;
+
+   /**
+    * @param file The file holding the state
+    */
+   public SyncStateStore(File file) {
+      mFile = file;
+   }
+
+   /**
+    * Loads the state
+    * @param fingerprint The fingerprint of the build (the state is dropped when it changes)
+    * @return the state, null if there is none or it cannot be used
+    */
+   public SyncState load(String fingerprint) {
+
+      if ( !mFile.isFile() || mFile.length() > MAX_FILE_SIZE ) {
+         return null;
+      }
+
+      byte [] data = new byte[(int)mFile.length()];
+
+      RandomAccessFile file = null;
+      try {
+         file = new RandomAccessFile(mFile, "r");
+         file.readFully(data);
+      } catch (IOException e) {
+         return null;
+      } finally {
+         close(file);
+      }
+
+      try {
+         return decode(ByteBuffer.wrap(data), fingerprint);
+      } catch (RuntimeException e) {
+         // Damaged file (truncated, bad sizes)
+         return null;
+      }
+   } // End of load
+
+   /**
+    * Saves the state, replacing the file in one rename
+    * @param state The state to save
+    * @param fingerprint The fingerprint of the build
+    * @return 'true' if the state was saved
+    */
+   public boolean save(SyncState state, String fingerprint) {
+
+      int     streamCount = state.getStreamCount();
+      int []  table       = state.getLevelMap().getTable();
+      int []  maxVolumes  = state.getMaxVolumes();
+      byte [] build       = fingerprint.getBytes(UTF_8);
+
+      ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 2 + build.length + 1 + streamCount * 3 + 4 + 4 + table.length);
+
+      buffer.putInt(MAGIC);
+      buffer.put(FORMAT_VERSION);
+      buffer.putShort((short)build.length);
+      buffer.put(build);
+      buffer.put((byte)streamCount);
+
+      for ( int streamID = 0; streamID < streamCount; ++streamID ) {
+         buffer.put((byte)state.getOSStreamID(streamID));
+         buffer.put((byte)maxVolumes[streamID]);
+         buffer.put((byte)state.getLevel(streamID));
+      }
+
+      buffer.putInt(state.getEnabledMask());
+      buffer.putInt(table.length);
+
+      for ( int index = 0; index < table.length; ++index ) {
+         buffer.put((byte)table[index]);
+      }
+
+      File             tempFile = new File(mFile.getPath() + ".tmp");
+      FileOutputStream output   = null;
+      try {
+         output = new FileOutputStream(tempFile);
+         output.write(buffer.array());
+      } catch (IOException e) {
+         return false;
+      } finally {
+         close(output);
+      }
+
+      return tempFile.renameTo(mFile);
+   } // End of save
+
+   // Decodes the content of the file
+   private static SyncState decode(ByteBuffer buffer, String fingerprint) {
+
+      if ( buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION ) {
+         return null;
+      }
+
+      byte [] build = new byte[buffer.getShort() & 0xFFFF];
+      buffer.get(build);
+
+      if ( !fingerprint.equals(new String(build, UTF_8)) ) {
+         return null;
+      }
+
+      int    streamCount = buffer.get() & 0xFF;
+
+      // The masks hold one bit per stream
+      if ( streamCount == 0 || streamCount > MAX_STREAM_COUNT ) {
+         return null;
+      }
+
+      int [] osStreamIDs = new int[streamCount];
+      int [] maxVolumes  = new int[streamCount];
+      int [] levels      = new int[streamCount];
+
+      for ( int streamID = 0; streamID < streamCount; ++streamID ) {
+         osStreamIDs[streamID] = buffer.get() & 0xFF;
+         maxVolumes [streamID] = buffer.get() & 0xFF;
+         levels     [streamID] = buffer.get() & 0xFF;
+
+         // A level above its maximum cannot come from the saved maximums
+         if ( levels[streamID] > maxVolumes[streamID] ) {
+            return null;
+         }
+      }
+
+      int enabledMask = buffer.getInt();
+      int tableSize   = buffer.getInt();
+
+      // No bits past the streams, the engine indexes its arrays with them
+      if ( ( enabledMask & ~( ( 1 << streamCount ) - 1 ) ) != 0 ) {
+         return null;
+      }
+
+      // The size must be the one of the table of the saved maximums, checked before allocating it
+      if ( tableSize != getTableSize(maxVolumes) || tableSize > buffer.remaining() ) {
+         return null;
+      }
+
+      int [] table = new int[tableSize];
+
+      for ( int index = 0; index < table.length; ++index ) {
+         table[index] = buffer.get() & 0xFF;
+
+         // The rows hold one level per target stream
+         if ( table[index] > maxVolumes[index % streamCount] ) {
+            return null;
+         }
+      }
+
+      return new SyncState(osStreamIDs, maxVolumes, levels, enabledMask, new VolumeLevelMap(maxVolumes, table));
+   } // End of decode
+
+   // The size of the level table for the maximums, one row of levels per source level
+   private static int getTableSize(int [] maxVolumes) {
+
+      int size = 0;
+
+      for ( int maxVolume : maxVolumes ) {
+         size += ( maxVolume + 1 ) * maxVolumes.length;
+      }
+
+      return size;
+   }
+
+   private static void close(Closeable closeable) {
+
+      if ( closeable != null ) {
+         try {
+            closeable.close();
+         } catch (IOException e) {
+            // Nothing left to do
+         }
+      }
+   }
+
+} // End of public class SyncStateStore
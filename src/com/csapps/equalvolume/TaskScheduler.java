@@ -0,0 +1,27 @@
+package com.csapps.equalvolume;
+
+/**
+ * Deferred work without a dedicated thread. A scheduled task only costs a queue entry until it
+ * is due; nothing is held (no thread, no wake lock) while idle.
+ */
+public interface TaskScheduler {
+
+   /**
+    * Runs the task once after the delay, replacing any pending run of the same task
+    * @param task The task to run
+    * @param delayMillis The delay before the run, in milliseconds
+    */
+   void schedule(Runnable task, long delayMillis);
+
+   /**
+    * Removes the pending run of the task, if any
+    * @param task The task to cancel
+    */
+   void cancel(Runnable task);
+
+   /**
+    * @return the number of times the scheduler has fired
+    */
+   long getFireCount();
+
+} // End of public interface TaskScheduler
@@ -0,0 +1,105 @@
+package com.csapps.equalvolume;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runtime switchable tracing of the volume changes. While off, recording is a single volatile
+ * read; while on, every event (timestamp, stream, old level, new level, cause) goes into a fixed
+ * binary ring buffer without allocating, and the buffer is turned into text only when dumped.
+ * The "verbose" switch guards the remaining (non hot path) text logs.
+ */
+public final class TraceLog {
+
+   /* Cause Constants */
+   static final int CAUSE_EXTERNAL   = 0;
+   static final int CAUSE_SELF_WRITE = 1;
+   static final int CAUSE_SYNC       = 2;
+   static final int CAUSE_SENTINEL   = 3;
+   static final int CAUSE_PRESET     = 4;
+   static final int CAUSE_CLAMP      = 5;
+
+   /* Constants */
+   static final private int      CAPACITY    = 1024; // Power of two
+   static final private String[] CAUSE_NAMES = { "external", "self-write", "sync", "sentinel", "preset", "clamp" };
+
+   /* Variables */
+   private static volatile boolean    sEnabled = false;
+   private static volatile boolean    sVerbose = false;
+   private static final long []       sTimes   = new long[CAPACITY];
+   private static final int []        sEvents  = new int[CAPACITY];
+   private static final AtomicInteger sNext    = new AtomicInteger();
+
+   private TraceLog() {
+   }
+
+   /**
+    * @param enabled 'true' to record the events into the ring buffer
+    */
+   public static void setEnabled(boolean enabled) {
+      sEnabled = enabled;
+   }
+
+   /**
+    * @param verbose 'true' to let the text logs through
+    */
+   public static void setVerbose(boolean verbose) {
+      sVerbose = verbose;
+   }
+
+   /**
+    * @return 'true' if the text logs should be written
+    */
+   public static boolean isVerbose() {
+      return sVerbose;
+   }
+
+   /**
+    * Records a volume event (no-op while tracing is off)
+    * @param streamID The "EqualVolume" stream ID
+    * @param oldLevel The level before the event
+    * @param newLevel The level after the event
+    * @param cause One of the CAUSE_* constants
+    */
+   public static void record(int streamID, int oldLevel, int newLevel, int cause) {
+
+      if ( !sEnabled ) {
+         return;
+      }
+
+      int index = sNext.getAndIncrement() & ( CAPACITY - 1 );
+
+      sTimes [index] = System.nanoTime();
+      sEvents[index] = ( ( streamID & 0xFF ) << 24 ) | ( ( oldLevel & 0xFF ) << 16 ) | ( ( newLevel & 0xFF ) << 8 ) | ( cause & 0xFF );
+   }
+
+   /**
+    * Writes the recorded events, oldest first, as text
+    * @param writer The writer to dump to
+    */
+   public static void dump(PrintWriter writer) {
+
+      int next  = sNext.get();
+      int count = Math.min(next, CAPACITY);
+
+      writer.println("Trace: "+( ( sEnabled ) ? "on" : "off" )+", "+count+" events (of "+next+")");
+
+      for ( int position = next - count; position < next; ++position ) {
+
+         int index = position & ( CAPACITY - 1 );
+         int event = sEvents[index];
+         int cause = event & 0xFF;
+
+         writer.print(sTimes[index]);
+         writer.print(" stream=");
+         writer.print(( event >>> 24 ) & 0xFF);
+         writer.print(" ");
+         writer.print(( event >>> 16 ) & 0xFF);
+         writer.print("->");
+         writer.print(( event >>> 8 ) & 0xFF);
+         writer.print(" ");
+         writer.println(( cause < CAUSE_NAMES.length ) ? CAUSE_NAMES[cause] : String.valueOf(cause));
+      }
+   } // End of dump
+
+} // End of public final class TraceLog
@@ -0,0 +1,34 @@
+package com.csapps.equalvolume;
+
+/**
+ * The volume control surface used by the sync engine. Stream IDs are the "EqualVolume"
+ * stream IDs (0 .. getStreamCount() - 1), the implementation translates them as needed.
+ */
+public interface VolumeBackend {
+
+   /**
+    * @return the number of streams handled by the backend
+    */
+   int getStreamCount();
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the current volume of the stream
+    */
+   int getStreamVolume(int streamID);
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the maximum volume of the stream
+    */
+   int getStreamMaxVolume(int streamID);
+
+   /**
+    * Sets the volume of a stream
+    * @param streamID The "EqualVolume" stream ID
+    * @param volume The new volume of the stream
+    * @param vibrate 'true' if the device should vibrate along with the change
+    */
+   void setStreamVolume(int streamID, int volume, boolean vibrate);
+
+} // End of public interface VolumeBackend
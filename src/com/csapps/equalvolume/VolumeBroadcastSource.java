@@ -0,0 +1,76 @@
+package com.csapps.equalvolume;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * The volume change notifications pushed by the OS. Only the (hidden) volume changed broadcast is
+ * used: it is sent for every stream volume change, while observing the system settings would also
+ * wake us up for every unrelated setting (e.g. the auto-brightness level). Only the application
+ * context is kept, no component is reachable through the registration.
+ */
+public class VolumeBroadcastSource implements VolumeObserver.ChangeSource {
+
+   /* Constants */
+   static final private String VOLUME_CHANGED_ACTION = "android.media.VOLUME_CHANGED_ACTION";
+
+   /* System resources */
+   private Context           mContext        = null;
+   private Handler           mHandler        = null;
+   private Runnable          mOnChange       = null;
+   private BroadcastReceiver mVolumeReceiver = null;
+
+   /**
+    * @param context The context to register with (only its application context is kept)
+    * @param handler The handler the notifications are delivered on
+    */
+   public VolumeBroadcastSource(Context context, Handler handler) {
+
+      mContext = context.getApplicationContext();
+      mHandler = handler;
+
+      // Volume change broadcast receiver
+      mVolumeReceiver = new BroadcastReceiver() {
+
+         @Override
+         public void onReceive(Context context, Intent intent) {
+
+            Runnable onChange = mOnChange;
+
+            if ( onChange != null ) {
+               onChange.run();
+            }
+         }
+      };
+   }
+
+   @Override
+   public boolean register(Runnable onChange) {
+
+      mOnChange = onChange;
+
+      try {
+         mContext.registerReceiver(mVolumeReceiver, new IntentFilter(VOLUME_CHANGED_ACTION), null, mHandler);
+         return true;
+      } catch (RuntimeException e) {
+         // Fall back to polling only
+         mOnChange = null;
+
+         if ( TraceLog.isVerbose() ) Log.v("Equal Volume", "Push registration failed, polling instead");
+
+         return false;
+      }
+   } // End of register
+
+   @Override
+   public void unregister() {
+
+      mContext.unregisterReceiver(mVolumeReceiver);
+      mOnChange = null;
+   }
+
+} // End of public class VolumeBroadcastSource
@@ -0,0 +1,106 @@
+package com.csapps.equalvolume;
+
+/**
+ * An immutable record of the volume event bus: either a change detected by the observer or the
+ * streams synced by the engine. The fields are primitives (the synced levels are an immutable
+ * copy), so a record can be handed to any thread.
+ */
+public final class VolumeEvent {
+
+   /* Type Constants */
+   static final int TYPE_CHANGE_DETECTED = 0;
+   static final int TYPE_STREAMS_SYNCED  = 1;
+
+   /* Variables */
+   private final int          mType;
+   private final int          mChangedMask;
+   private final int          mSentinel;
+   private final int          mIpcCount;
+   private final long         mStartTime;
+   private final long         mTime;
+   private final VolumeLevels mVolumeLevels;
+
+   private VolumeEvent(int type, int changedMask, int sentinel, int ipcCount, long startTime, long time, VolumeLevels volumeLevels) {
+
+      mType         = type;
+      mChangedMask  = changedMask;
+      mSentinel     = sentinel;
+      mIpcCount     = ipcCount;
+      mStartTime    = startTime;
+      mTime         = time;
+      mVolumeLevels = volumeLevels;
+   }
+
+   /**
+    * @param changedMask The mask of the changed streams (bit "n" set for stream "n")
+    * @param notifyTime The time (System.nanoTime()) the check was requested
+    * @param detectTime The time the changed mask was known
+    * @return the event of a detected change
+    */
+   public static VolumeEvent changeDetected(int changedMask, long notifyTime, long detectTime) {
+      return new VolumeEvent(TYPE_CHANGE_DETECTED, changedMask, VolumeSyncEngine.SENTINEL_NONE, 0, notifyTime, detectTime, null);
+   }
+
+   /**
+    * @param changedMask The mask of the streams that triggered the sync (0 for levels published without a sync)
+    * @param sentinel The sentinel level entered by the sync (VolumeSyncEngine.SENTINEL_NONE if none)
+    * @param ipcCount The number of backend calls of the event
+    * @param startTime The time (System.nanoTime()) the sync started
+    * @param endTime The time all the streams were written
+    * @param volumeLevels The levels after the sync
+    * @return the event of synced streams
+    */
+   public static VolumeEvent streamsSynced(int changedMask, int sentinel, int ipcCount, long startTime, long endTime, VolumeLevels volumeLevels) {
+      return new VolumeEvent(TYPE_STREAMS_SYNCED, changedMask, sentinel, ipcCount, startTime, endTime, volumeLevels);
+   }
+
+   /**
+    * @return the type of the event (TYPE_CHANGE_DETECTED or TYPE_STREAMS_SYNCED)
+    */
+   public int getType() {
+      return mType;
+   }
+
+   /**
+    * @return the mask of the changed streams (bit "n" set for stream "n")
+    */
+   public int getChangedMask() {
+      return mChangedMask;
+   }
+
+   /**
+    * @return the sentinel level entered by the sync (VolumeSyncEngine.SENTINEL_NONE if none)
+    */
+   public int getSentinel() {
+      return mSentinel;
+   }
+
+   /**
+    * @return the number of backend calls of the sync
+    */
+   public int getIpcCount() {
+      return mIpcCount;
+   }
+
+   /**
+    * @return the time (System.nanoTime()) the check was requested or the sync started
+    */
+   public long getStartTime() {
+      return mStartTime;
+   }
+
+   /**
+    * @return the time (System.nanoTime()) the change was detected or the sync finished
+    */
+   public long getTime() {
+      return mTime;
+   }
+
+   /**
+    * @return the levels after the sync (null for a detected change)
+    */
+   public VolumeLevels getVolumeLevels() {
+      return mVolumeLevels;
+   }
+
+} // End of public final class VolumeEvent
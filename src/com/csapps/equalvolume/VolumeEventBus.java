@@ -0,0 +1,115 @@
+package com.csapps.equalvolume;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process bus of the volume events. The subscriber list is a copy-on-write array behind an
+ * AtomicReference: publishing is one volatile read and a loop, with no lock, and subscribing or
+ * unsubscribing swaps in a new array. Every subscriber picks its executor; a subscriber without
+ * one runs on the publishing thread, the others are handed the event through their executor, so
+ * a slow consumer (e.g. the UI) never delays the sync path.
+ * The events are not pooled: a subscriber may hold an event (and its levels) after the delivery,
+ * so each publish allocates the event and one small delivery per executor subscriber. That is
+ * about 160 bytes per coalesced sync with the UI and the widgets subscribed.
+ */
+public class VolumeEventBus {
+
+   /**
+    * Receives the published events
+    */
+   public interface Subscriber {
+
+      /**
+       * Called for every published event, on the executor of the subscription
+       * @param event The event
+       */
+      void onVolumeEvent(VolumeEvent event);
+   }
+
+   // A subscriber with its executor (null for the publishing thread)
+   private static final class Subscription {
+
+      final Subscriber mSubscriber;
+      final Executor   mExecutor;
+
+      Subscription(Subscriber subscriber, Executor executor) {
+         mSubscriber = subscriber;
+         mExecutor   = executor;
+      }
+   }
+
+   // Hands one event to a subscriber on its executor
+   private static final class Delivery implements Runnable {
+
+      private final Subscriber  mSubscriber;
+      private final VolumeEvent mEvent;
+
+      Delivery(Subscriber subscriber, VolumeEvent event) {
+         mSubscriber = subscriber;
+         mEvent      = event;
+      }
+
+      @Override
+      public void run() {
+         mSubscriber.onVolumeEvent(mEvent);
+      }
+   }
+
+   /* Variables */
+   private final AtomicReference<Subscription []> mSubscriptions = new AtomicReference<Subscription []>(new Subscription[0]);
+   private volatile long                          mPublishCount  = 0;
+
+   /**
+    * Subscribes to all the events
+    * @param subscriber The subscriber
+    * @param executor The executor to deliver the events on, null to run on the publishing thread
+    */
+   public void subscribe(Subscriber subscriber, Executor executor) {
+
+      Subscription subscription = new Subscription(subscriber, executor);
+      Subscription [] current;
+      Subscription [] updated;
+
+      do {
+         current = mSubscriptions.get();
+         updated = new Subscription[current.length + 1];
+
+         System.arraycopy(current, 0, updated, 0, current.length);
+         updated[current.length] = subscription;
+      } while ( !mSubscriptions.compareAndSet(current, updated) );
+   }
+
+   /**
+    * Publishes an event to every subscriber, once
+    * @param event The event
+    */
+   public void publish(VolumeEvent event) {
+
+      mPublishCount++;
+
+      for ( Subscription subscription : mSubscriptions.get() ) {
+
+         if ( subscription.mExecutor == null ) {
+            subscription.mSubscriber.onVolumeEvent(event);
+         } else {
+            subscription.mExecutor.execute(new Delivery(subscription.mSubscriber, event));
+         }
+      }
+   }
+
+   /**
+    * @return the number of published events (as seen by the publishing thread)
+    */
+   public long getPublishCount() {
+      return mPublishCount;
+   }
+
+   /**
+    * @return the number of subscriptions
+    */
+   public int getSubscriberCount() {
+      return mSubscriptions.get().length;
+   }
+
+} // End of public class VolumeEventBus
@@ -0,0 +1,153 @@
+package com.csapps.equalvolume;
+
+/**
+ * Folds bursts of volume events (e.g. a held volume key) into one change. The first event of a
+ * burst opens a window; every event seen in the window adds its delta to the net change of its
+ * stream, and when the window closes all the streams with a net change are handed over at once.
+ */
+public class VolumeEventCoalescer {
+
+   /**
+    * Receives the coalesced changes
+    */
+   public interface OnCoalescedChangeListener {
+
+      /**
+       * Called once when the window closes, if any stream has a net change
+       * @param changedMask The mask of the streams with a net change (bit "n" set for stream "n")
+       * @param netDeltas The sums of the deltas seen in the window, indexed by stream ID (only valid during the call)
+       * @param rawEvents The number of events folded into this change
+       */
+      void onCoalescedChange(int changedMask, int [] netDeltas, int rawEvents);
+   }
+
+   /* Variables */
+   private int []       mNetDeltas;
+   private int          mPendingEvents    = 0;
+   private long         mWindowMillis;
+   private boolean      mFlushPending     = false;
+   private long         mRawEventCount    = 0;
+   private long         mAppliedCount     = 0;
+   private int          mMaxMergeCount    = 0;
+
+   /* Resources */
+   private TaskScheduler             mScheduler = null;
+   private OnCoalescedChangeListener mListener  = null;
+   private Runnable                  mFlushTask = null;
+
+   /**
+    * @param streamCount The number of streams
+    * @param scheduler The scheduler used to close the window
+    * @param windowMillis The length of the window, 0 applies every event right away
+    * @param listener The listener of the coalesced changes
+    */
+   public VolumeEventCoalescer(int streamCount, TaskScheduler scheduler, long windowMillis, OnCoalescedChangeListener listener) {
+
+      mNetDeltas    = new int[streamCount];
+      mScheduler    = scheduler;
+      mWindowMillis = windowMillis;
+      mListener     = listener;
+
+      mFlushTask = new Runnable() {
+
+         @Override
+         public void run() {
+            flush();
+         }
+      };
+   }
+
+   /**
+    * Queues the changes of several streams detected together, counted as one event
+    * @param changedMask The mask of the changed streams (bit "n" set for stream "n")
+    * @param snapshot The snapshot holding the deltas of the streams
+    */
+   public void offer(int changedMask, VolumeSnapshot snapshot) {
+
+      for ( int mask = changedMask; mask != 0; mask &= ( mask - 1 ) ) {
+
+         int streamID = Integer.numberOfTrailingZeros(mask);
+
+         mNetDeltas[streamID] += snapshot.getDelta(streamID);
+      }
+
+      mPendingEvents++;
+      mRawEventCount++;
+
+      scheduleFlush();
+   } // End of offer
+
+   // Applies right away or opens the window
+   private void scheduleFlush() {
+
+      if ( mWindowMillis <= 0 ) {
+
+         flush();
+
+      } else if ( !mFlushPending ) {
+
+         // The window is not extended by later events, so a held key still syncs regularly
+         mFlushPending = true;
+         mScheduler.schedule(mFlushTask, mWindowMillis);
+      }
+   } // End of scheduleFlush
+
+   /**
+    * Closes the window, handing over all the streams with a net change in one call
+    */
+   public void flush() {
+
+      mScheduler.cancel(mFlushTask);
+      mFlushPending = false;
+
+      int changedMask = 0;
+      int rawEvents   = mPendingEvents;
+
+      mPendingEvents = 0;
+
+      for ( int streamID = 0; streamID < mNetDeltas.length; ++streamID ) {
+
+         // Up and down within the window cancel out
+         if ( mNetDeltas[streamID] != 0 ) {
+            changedMask |= ( 1 << streamID );
+         }
+      }
+
+      if ( changedMask != 0 ) {
+
+         mAppliedCount++;
+
+         if ( rawEvents > mMaxMergeCount ) {
+            mMaxMergeCount = rawEvents;
+         }
+
+         mListener.onCoalescedChange(changedMask, mNetDeltas, rawEvents);
+      }
+
+      for ( int streamID = 0; streamID < mNetDeltas.length; ++streamID ) {
+         mNetDeltas[streamID] = 0;
+      }
+   } // End of flush
+
+   /**
+    * @return the number of events offered
+    */
+   public long getRawEventCount() {
+      return mRawEventCount;
+   }
+
+   /**
+    * @return the number of coalesced changes applied
+    */
+   public long getAppliedCount() {
+      return mAppliedCount;
+   }
+
+   /**
+    * @return the largest number of events folded into one applied change
+    */
+   public int getMaxMergeCount() {
+      return mMaxMergeCount;
+   }
+
+} // End of public class VolumeEventCoalescer
@@ -0,0 +1,105 @@
+package com.csapps.equalvolume;
+
+/**
+ * Precomputed proportional level mapping between streams. For every source stream and every
+ * source level it holds the matching level of every other stream, so a sync is one table
+ * lookup per stream. "0" only maps to "0" and "max" only maps to "max", so all the streams
+ * reach their sentinel levels together.
+ */
+public class VolumeLevelMap {
+
+   /* Variables */
+   private int []       mTable;
+   private int []       mOffsets;
+   private int          mStreamCount;
+
+   /**
+    * Builds the table, done once from the stream maximums
+    * @param streamMaxVolumes The maximum volume of each stream
+    */
+   public VolumeLevelMap(int [] streamMaxVolumes) {
+
+      mTable = new int[computeOffsets(streamMaxVolumes)];
+
+      for ( int sourceID = 0; sourceID < mStreamCount; ++sourceID ) {
+
+         int sourceMax = streamMaxVolumes[sourceID];
+
+         for ( int level = 0; level <= sourceMax; ++level ) {
+            for ( int targetID = 0; targetID < mStreamCount; ++targetID ) {
+               mTable[mOffsets[sourceID] + level * mStreamCount + targetID] = mapLevel(level, sourceMax, streamMaxVolumes[targetID]);
+            }
+         }
+      }
+   } // End of constructor VolumeLevelMap
+
+   /**
+    * Restores a persisted table
+    * @param streamMaxVolumes The maximum volume of each stream
+    * @param table The table returned by getTable() for the same maximums
+    */
+   public VolumeLevelMap(int [] streamMaxVolumes, int [] table) {
+
+      if ( table.length != computeOffsets(streamMaxVolumes) ) {
+         throw new IllegalArgumentException("Table does not match the stream maximums");
+      }
+
+      mTable = table;
+   }
+
+   // Computes the offset of the rows of every source stream, returns the size of the table
+   private int computeOffsets(int [] streamMaxVolumes) {
+
+      mStreamCount = streamMaxVolumes.length;
+      mOffsets     = new int[mStreamCount];
+
+      // One row of "mStreamCount" target levels per source level
+      int size = 0;
+      for ( int sourceID = 0; sourceID < mStreamCount; ++sourceID ) {
+         mOffsets[sourceID] = size;
+         size += ( streamMaxVolumes[sourceID] + 1 ) * mStreamCount;
+      }
+
+      return size;
+   }
+
+   /**
+    * @return the flat table, for persisting it (not to be modified)
+    */
+   public int [] getTable() {
+      return mTable;
+   }
+
+   /**
+    * @param sourceID The stream whose level has changed
+    * @param level The new level of the source stream
+    * @param targetID The stream to get the level for
+    * @return the level of the target stream matching the source level
+    */
+   public int getTargetLevel(int sourceID, int level, int targetID) {
+      return mTable[mOffsets[sourceID] + level * mStreamCount + targetID];
+   }
+
+   // Rounds the ratio of the levels, keeping the in-between levels away from "0" and "max"
+   private static int mapLevel(int level, int sourceMax, int targetMax) {
+
+      if ( level <= 0 || sourceMax <= 0 ) {
+         return 0;
+      } else if ( level >= sourceMax ) {
+         return targetMax;
+      }
+
+      int targetLevel = ( level * targetMax + sourceMax / 2 ) / sourceMax;
+
+      if ( targetMax >= 2 ) {
+         if ( targetLevel < 1 ) {
+            targetLevel = 1;
+         } else if ( targetLevel > targetMax - 1 ) {
+            targetLevel = targetMax - 1;
+         }
+      }
+
+      return targetLevel;
+   } // End of mapLevel
+
+} // End of public class VolumeLevelMap
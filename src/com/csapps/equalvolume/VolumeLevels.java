@@ -0,0 +1,56 @@
+package com.csapps.equalvolume;
+
+/**
+ * Immutable result of a sync, handed from the sync thread to the UI thread. Holds a copy of the
+ * stream levels, so the UI never touches the live snapshot.
+ */
+public final class VolumeLevels {
+
+   /* Variables */
+   private final int []  mLevels;
+   private final int []  mMaxVolumes;
+   private final int     mSentinel;
+
+   /**
+    * @param snapshot The snapshot to copy the levels from
+    * @param maxVolumes The maximum volume of each stream (not copied, never modified)
+    * @param sentinel The sentinel level entered by the sync (VolumeSyncEngine.SENTINEL_NONE if none)
+    */
+   public VolumeLevels(VolumeSnapshot snapshot, int [] maxVolumes, int sentinel) {
+
+      mLevels     = snapshot.copyLevels();
+      mMaxVolumes = maxVolumes;
+      mSentinel   = sentinel;
+   }
+
+   /**
+    * @return the number of streams
+    */
+   public int getStreamCount() {
+      return mLevels.length;
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the level of the stream
+    */
+   public int getLevel(int streamID) {
+      return mLevels[streamID];
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the maximum volume of the stream
+    */
+   public int getMaxVolume(int streamID) {
+      return mMaxVolumes[streamID];
+   }
+
+   /**
+    * @return the sentinel level entered by the sync (VolumeSyncEngine.SENTINEL_NONE if none)
+    */
+   public int getSentinel() {
+      return mSentinel;
+   }
+
+} // End of public final class VolumeLevels
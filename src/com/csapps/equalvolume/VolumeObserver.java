@@ -1,58 +1,66 @@
 package com.csapps.equalvolume;
 
-import android.content.Context;
-import android.database.ContentObserver;
-import android.media.AudioManager;
-import android.os.Handler;
-import android.util.Log;
-import android.view.KeyEvent;
-
-public class VolumeObserver extends ContentObserver {
-
-   /* Volume Stream Constants */
-   static final int INVALID_STREAM              = -1;
-   static final int VOLUME_STREAM_RING_TONE     =  0;
-   static final int VOLUME_STREAM_MUSIC         =  1;
-   static final int VOLUME_STREAM_NOTIFICATIONS =  2;
-   static final int VOLUME_STREAM_SYSTEM_SOUNDS =  3;
-   static final int VOLUME_STREAM_VOICE_CALLS   =  4;
-   static final int MAX_VOLUME_STREAMS          =  5;
+/**
+ * Detects the volume changes: checks all the streams when the OS reports a volume change, and
+ * polls slowly as a fallback. Holds no Android references, the notifications come through a
+ * ChangeSource, so the observer can be built and released on a plain JVM.
+ */
+public class VolumeObserver {
+
+   /**
+    * The push notifications of the volume changes
+    */
+   public interface ChangeSource {
+
+      /**
+       * Starts the notifications, delivered on the thread of the observer's scheduler
+       * @param onChange The task to run on every volume change
+       * @return 'true' if the notifications are pushed, 'false' if only polling is possible
+       */
+      boolean register(Runnable onChange);
+
+      /**
+       * Stops the notifications and drops the task
+       */
+      void unregister();
+   }
 
    /* Constants */
-   static final private int ONE_SECOND          = 1000;
+   static final private int    ONE_SECOND            = 1000;
+   static final private int    ONE_MINUTE            = 60000;
 
    /* Variables */
-   private int []       mPreviousStreamVolume;
+   private boolean      mPushRegistered       = false;
+   private long         mWakeupCount          = 0;
+   private long         mNotifyTime           = 0;
 
    /* System resources */
-   private Context      mContext              = null;
-   private AudioManager mAudioManager         = null;
-   private Handler      mHandler              = null;
-   private Runnable     mVolumeObserverThread = null;
-
-   /* Logging Variables */
-   private final boolean PRINT_LOG_STMTS = false;
-
-   public VolumeObserver(Context context, Handler handler) {
-      super(handler);
-
-      // Save the context
-      mContext = context;
+   private ChangeSource      mChangeSource         = null;
+   private VolumeEventBus    mEventBus             = null;
+   private VolumeSyncEngine  mSyncEngine           = null;
+   private TaskScheduler     mScheduler            = null;
+   private Runnable          mVolumeObserverThread = null;
+   private Runnable          mChangeTask           = null;
+
+   /**
+    * @param changeSource The source of the volume change notifications, registered until release()
+    * @param scheduler The scheduler the checks run on
+    * @param syncEngine The sync engine detecting the changes
+    * @param eventBus The bus the detected changes are published on, kept until release()
+    */
+   public VolumeObserver(ChangeSource changeSource, TaskScheduler scheduler, VolumeSyncEngine syncEngine, VolumeEventBus eventBus) {
 
-      // Get the system Audio Manager
-      mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+      // Save the source of the notifications
+      mChangeSource = changeSource;
 
-      // Create the "previous volume" array
-      mPreviousStreamVolume = new int[MAX_VOLUME_STREAMS];
+      // Save the bus of the changes
+      mEventBus = eventBus;
 
-      // Fetch stream volumes
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-         int osStreamID = (int)((MainActivity)mContext).getOSStreamID(streamID);
-         mPreviousStreamVolume[streamID] = mAudioManager.getStreamVolume(osStreamID);
-      }
+      // Save the sync engine (it keeps the "previous volume" of every stream)
+      mSyncEngine = syncEngine;
 
-      // Create the handler object
-      mHandler = new Handler();
+      // Save the scheduler (the same thread the notifications are delivered on)
+      mScheduler = scheduler;
 
       // Volume Observer thread
       mVolumeObserverThread = new Runnable() {
@@ -60,126 +68,87 @@ public class VolumeObserver extends ContentObserver {
          @Override
          public void run() {
 
-            // Get the operating system stream ID of the changed stream (if any)
-            int changedOSStreamID = getChangedOSStreamID();
+            // Count every time the CPU is woken up for a volume check
+            mWakeupCount++;
 
-            if ( changedOSStreamID != INVALID_STREAM ) {
+            // A poll starts the detection here, a notification when it arrived
+            boolean poll       = ( mNotifyTime == 0 );
+            long    notifyTime = ( poll ) ? System.nanoTime() : mNotifyTime;
+            mNotifyTime = 0;
 
-               // Handle volume change
-               handleVolumeChange(changedOSStreamID);
+            // Get the mask of the changed streams (if any), all the streams are checked in one pass
+            int changedMask = mSyncEngine.getChangedStreamMask(poll);
 
-            } else {
+            if ( changedMask != 0 && mEventBus != null ) {
 
-               // Register for the next callback
-               registerVolumeObserverHandler();
+               // Publish the change once, the subscribers (sync, metrics, ...) take it from there
+               mEventBus.publish(VolumeEvent.changeDetected(changedMask, notifyTime, System.nanoTime()));
             }
+
+            // Register for the next callback
+            registerVolumeObserverHandler();
          }
       };
 
-      // Register the volume observer handler callback for the first time
-      registerVolumeObserverHandler();
-
-   } // End of constructor VolumeObserver
+      // Volume change notification
+      mChangeTask = new Runnable() {
 
-   // Creating the volume observer callback
-   public void registerVolumeObserverHandler() {
-
-      // Register the UI refresh thread with the handler
-      mHandler.postDelayed ( mVolumeObserverThread, ONE_SECOND );
-
-   } // End of function registerUIRefreshHandler()
-
-   @Override
-   public boolean deliverSelfNotifications() {
-      return super.deliverSelfNotifications();
-   }
-
-   @Override
-   public void onChange(boolean selfChange) {
-      super.onChange(selfChange);
-   } // End of onChange
-
-   private void handleVolumeChange(int changedOSStreamID) {
-
-      // Get the "delta" of the changed volume stream
-      int delta = getChangedStreamDelta(changedOSStreamID);
+         @Override
+         public void run() {
 
-      if ( delta > 0 ) {
+            // Check the streams right away
+            checkNow();
+         }
+      };
 
-         // Volume Up
-         ((MainActivity)mContext).handleVolumeChange(true, changedOSStreamID);
+      // Register for the push notifications of volume changes, polling only if there are none
+      mPushRegistered = mChangeSource.register(mChangeTask);
 
-      } else if ( delta <= 0 ) {
+      // Register the volume observer handler callback for the first time
+      registerVolumeObserverHandler();
 
-         // Volume Down
-         ((MainActivity)mContext).handleVolumeChange(false, changedOSStreamID);
-      }
-   } // End of handleVolumeChange
+   } // End of constructor VolumeObserver
 
-   /***
-    * 
-    * @return the OS stream ID whose volume has changed
+   /**
+    * Unregisters all the callbacks of the observer and drops the bus
     */
-   private int getChangedOSStreamID() {
-
-      int changedOSStreamID = INVALID_STREAM;
-
-      // Fetch stream volume and check against previous
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-         int osStreamID          = (int)((MainActivity)mContext).getOSStreamID(streamID);
-         int currentStreamVolume = mAudioManager.getStreamVolume(osStreamID);
+   public void release() {
 
-         // The current and the previous do not match
-         if (currentStreamVolume != mPreviousStreamVolume[streamID]) {
+      mScheduler.cancel(mVolumeObserverThread);
+      mEventBus = null;
 
-            // Changed OS stream ID
-            changedOSStreamID = osStreamID;
-            break;
-         }
+      if ( mPushRegistered ) {
+         mChangeSource.unregister();
+         mPushRegistered = false;
       }
+   } // End of release
 
-      return changedOSStreamID;
-   } // End of getChangedOSStreamID
-
-   /***
-    * The function returns the delta of the volume change of the passed OS stream ID
-    * @param changedOSStreamID The id of the changed OS stream
-    * @return the delta of the changed stream volume
-    */
-   private int getChangedStreamDelta(int changedOSStreamID) {
-
-      int delta = 0;
+   // Creating the volume observer callback
+   public void registerVolumeObserverHandler() {
 
-      int streamID 			  = (int)((MainActivity)mContext).getEqualVolumeStreamID(changedOSStreamID);
-      int currentStreamVolume = mAudioManager.getStreamVolume(changedOSStreamID);
+      // With push notifications in place polling is only a (slow) fallback for missed changes
+      mScheduler.schedule ( mVolumeObserverThread, ( mPushRegistered ) ? ONE_MINUTE : ONE_SECOND );
 
-      // Delta is "current volume" minus "previous volume"
-      delta = currentStreamVolume - mPreviousStreamVolume[streamID];
+   } // End of function registerUIRefreshHandler()
 
-      // Save the current value for "future" usage
-      mPreviousStreamVolume[streamID] = currentStreamVolume;
+   /**
+    * Runs the volume check immediately (in place of the pending fallback poll)
+    */
+   private void checkNow() {
 
-      if ( PRINT_LOG_STMTS ) {
-         Log.v("Equal Volume", "currentStreamVolume = "+currentStreamVolume);
-         Log.v("Equal Volume", "delta               = "+delta);
+      // Keep the first notification of a burst for the detection latency
+      if ( mNotifyTime == 0 ) {
+         mNotifyTime = System.nanoTime();
       }
 
-      return delta;
-   } // End of getChangedStreamDelta
-
-   // Updates the previous stream volume array with the current stream volumes
-   public void updatePreviousVolumes() {
+      mScheduler.schedule(mVolumeObserverThread, 0);
+   } // End of checkNow
 
-      // Fetch stream volume and check against previous
-      for ( int streamID = VOLUME_STREAM_RING_TONE; streamID < MAX_VOLUME_STREAMS; ++streamID ) {
-
-         int osStreamID          = (int)((MainActivity)mContext).getOSStreamID(streamID);
-         int currentStreamVolume = mAudioManager.getStreamVolume(osStreamID);
-
-         // Save the current value for "future" usage
-         mPreviousStreamVolume[streamID] = currentStreamVolume;
-      }
-
-   } // End of updatePreviousVolumes
+   /**
+    * @return the total number of volume checks since the observer was created
+    */
+   public long getWakeupCount() {
+      return mWakeupCount;
+   } // End of getWakeupCount
 
 } // End of public class VolumeObserver
@@ -0,0 +1,66 @@
+package com.csapps.equalvolume;
+
+/**
+ * A named set of target levels, e.g. "meeting" or "night". The targets are kept per OS stream as
+ * a percentage of the stream range, so a preset carries over between devices; streams without a
+ * target are left as they are.
+ */
+public final class VolumePreset {
+
+   /* Constants */
+   static final int NO_TARGET = -1;
+
+   /* Variables */
+   private final String mName;
+   private final int [] mPercents; // Indexed by OS stream ID
+
+   /**
+    * @param name The name of the preset
+    * @param percents The target of every OS stream in percent (0 - 100), NO_TARGET to leave the stream alone
+    */
+   public VolumePreset(String name, int [] percents) {
+
+      mName     = name;
+      mPercents = new int[VolumeStreams.MAX_OS_STREAM_ID + 1];
+
+      for ( int osStreamID = 0; osStreamID < mPercents.length; ++osStreamID ) {
+         mPercents[osStreamID] = ( osStreamID < percents.length ) ? percents[osStreamID] : NO_TARGET;
+      }
+   }
+
+   /**
+    * @return the name of the preset
+    */
+   public String getName() {
+      return mName;
+   }
+
+   /**
+    * @param osStreamID The OS' version of the 'stream ID'
+    * @return the target of the stream in percent, NO_TARGET if the stream is left alone
+    */
+   public int getPercent(int osStreamID) {
+      return mPercents[osStreamID];
+   }
+
+   /**
+    * Turns the percentages into the levels of the registered streams
+    * @param volumeStreams The registry of the streams
+    * @param maxVolumes The maximum volume of every "EqualVolume" stream
+    * @return the target level of every "EqualVolume" stream, NO_TARGET for the streams left alone
+    */
+   public int [] resolve(VolumeStreams volumeStreams, int [] maxVolumes) {
+
+      int [] levels = new int[volumeStreams.getStreamCount()];
+
+      for ( int streamID = 0; streamID < levels.length; ++streamID ) {
+
+         int percent = mPercents[volumeStreams.getOSStreamID(streamID)];
+
+         levels[streamID] = ( percent == NO_TARGET ) ? NO_TARGET : ( percent * maxVolumes[streamID] + 50 ) / 100;
+      }
+
+      return levels;
+   }
+
+} // End of public final class VolumePreset
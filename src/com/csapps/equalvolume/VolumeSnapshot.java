@@ -0,0 +1,114 @@
+package com.csapps.equalvolume;
+
+/**
+ * The last known volume of every stream. Filled from the backend once per event, updated in place
+ * after our own writes and read by both the sync engine and the UI, so a stream is never read
+ * twice for the same event.
+ */
+public class VolumeSnapshot {
+
+   /* Variables */
+   private int []       mLevels;
+   private int []       mPreviousLevels;
+   private long         mHits    = 0;
+   private long         mMisses  = 0;
+
+   public VolumeSnapshot(int streamCount) {
+
+      mLevels         = new int[streamCount];
+      mPreviousLevels = new int[streamCount];
+   }
+
+   /**
+    * @return the number of streams in the snapshot
+    */
+   public int getStreamCount() {
+      return mLevels.length;
+   }
+
+   /**
+    * Reads every stream from the backend (one call per stream). The levels held before the
+    * refresh become the "previous" levels; a level resulting from our own write (as read back
+    * after it) is taken in as is and not reported as a change.
+    * @param backend The backend to read the levels from
+    * @param tracker The tracker of our own writes
+    * @return the mask of the changed streams (bit "n" set for stream "n"), 0 if none
+    */
+   public int refresh(VolumeBackend backend, SelfWriteTracker tracker) {
+
+      int changedMask = 0;
+
+      for ( int streamID = 0; streamID < mLevels.length; ++streamID ) {
+
+         int level = backend.getStreamVolume(streamID);
+         mMisses++;
+
+         boolean selfWrite = tracker.consume(streamID, level);
+
+         mPreviousLevels[streamID] = ( selfWrite ) ? level : mLevels[streamID];
+
+         if ( level != mLevels[streamID] ) {
+            TraceLog.record(streamID, mLevels[streamID], level, ( selfWrite ) ? TraceLog.CAUSE_SELF_WRITE : TraceLog.CAUSE_EXTERNAL);
+
+            mLevels[streamID] = level;
+
+            if ( !selfWrite ) {
+               changedMask |= ( 1 << streamID );
+            }
+         }
+      }
+
+      return changedMask;
+   } // End of refresh
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the cached level of the stream
+    */
+   public int getLevel(int streamID) {
+
+      mHits++;
+      return mLevels[streamID];
+   }
+
+   /**
+    * Copies the cached levels, for the results handed to the UI (not counted as hits)
+    * @return a copy of the levels, indexed by "EqualVolume" stream ID
+    */
+   public int [] copyLevels() {
+      return mLevels.clone();
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the change of the stream level in the last refresh
+    */
+   public int getDelta(int streamID) {
+      return mLevels[streamID] - mPreviousLevels[streamID];
+   }
+
+   /**
+    * Updates the cached level of a stream after we have written it
+    * @param streamID The "EqualVolume" stream ID
+    * @param level The level written to the stream
+    */
+   public void setLevel(int streamID, int level) {
+
+      mLevels[streamID] = level;
+   }
+
+   /**
+    * @return the number of levels served from the snapshot
+    */
+   public long getHits() {
+      return mHits;
+   }
+
+   /**
+    * @return the number of levels read from the backend
+    */
+   public long getMisses() {
+      return mMisses;
+   }
+
+} // End of public class VolumeSnapshot
@@ -0,0 +1,136 @@
+package com.csapps.equalvolume;
+
+/**
+ * Registry of the streams handled by the app. Each registered OS stream gets a dense "EqualVolume"
+ * stream ID (its slot, in registration order); a flat index table translates the OS stream IDs to
+ * slots in O(1), and every loop of the app runs over the registered slots only.
+ */
+public class VolumeStreams {
+
+   /* OS Stream Constants (the values of AudioManager.STREAM_*) */
+   static final int OS_STREAM_VOICE_CALL    =  0;
+   static final int OS_STREAM_SYSTEM        =  1;
+   static final int OS_STREAM_RING          =  2;
+   static final int OS_STREAM_MUSIC         =  3;
+   static final int OS_STREAM_ALARM         =  4;
+   static final int OS_STREAM_NOTIFICATION  =  5;
+   static final int OS_STREAM_DTMF          =  8;
+   static final int OS_STREAM_ACCESSIBILITY = 10;
+   static final int MAX_OS_STREAM_ID        = 15;
+
+   /* Volume Stream Constants (slots of the default registry) */
+   static final int INVALID_STREAM              = -1;
+   static final int VOLUME_STREAM_RING_TONE     =  0;
+   static final int VOLUME_STREAM_MUSIC         =  1;
+   static final int VOLUME_STREAM_NOTIFICATIONS =  2;
+   static final int VOLUME_STREAM_SYSTEM_SOUNDS =  3;
+   static final int VOLUME_STREAM_VOICE_CALLS   =  4;
+   static final int VOLUME_STREAM_ALARM         =  5;
+   static final int VOLUME_STREAM_DTMF          =  6;
+   static final int VOLUME_STREAM_ACCESSIBILITY =  7;
+
+   /* Variables */
+   private final int []     mStreamIDs      = new int[MAX_OS_STREAM_ID + 1];
+   private final int []     mOSStreamIDs    = new int[MAX_OS_STREAM_ID + 1];
+   private final boolean [] mDefaultEnabled = new boolean[MAX_OS_STREAM_ID + 1];
+   private int              mStreamCount    = 0;
+
+   public VolumeStreams() {
+
+      for ( int osStreamID = 0; osStreamID <= MAX_OS_STREAM_ID; ++osStreamID ) {
+         mStreamIDs[osStreamID] = INVALID_STREAM;
+      }
+   }
+
+   /**
+    * Creates the registry of the streams the app handles by default
+    * @param withAccessibility 'true' if the accessibility stream exists on the device
+    * @return the registry, the original five streams are synced by default
+    */
+   public static VolumeStreams createDefault(boolean withAccessibility) {
+
+      VolumeStreams streams = new VolumeStreams();
+
+      streams.register(OS_STREAM_RING,         true);
+      streams.register(OS_STREAM_MUSIC,        true);
+      streams.register(OS_STREAM_NOTIFICATION, true);
+      streams.register(OS_STREAM_SYSTEM,       true);
+      streams.register(OS_STREAM_VOICE_CALL,   true);
+      streams.register(OS_STREAM_ALARM,        false);
+      streams.register(OS_STREAM_DTMF,         false);
+
+      if ( withAccessibility ) {
+         streams.register(OS_STREAM_ACCESSIBILITY, false);
+      }
+
+      return streams;
+   } // End of createDefault
+
+   /**
+    * Registers an OS stream, registering it again returns the same slot
+    * @param osStreamID The OS' version of the 'stream ID'
+    * @param enabledByDefault 'true' if the stream is synced until the user says otherwise
+    * @return the "EqualVolume" stream ID of the stream
+    */
+   public int register(int osStreamID, boolean enabledByDefault) {
+
+      if ( osStreamID < 0 || osStreamID > MAX_OS_STREAM_ID ) {
+         throw new IllegalArgumentException("Unsupported stream "+osStreamID);
+      }
+
+      if ( mStreamIDs[osStreamID] == INVALID_STREAM ) {
+         mStreamIDs[osStreamID]          = mStreamCount;
+         mOSStreamIDs[mStreamCount]      = osStreamID;
+         mDefaultEnabled[mStreamCount]   = enabledByDefault;
+         mStreamCount++;
+      }
+
+      return mStreamIDs[osStreamID];
+   } // End of register
+
+   /**
+    * @return the number of registered streams
+    */
+   public int getStreamCount() {
+      return mStreamCount;
+   }
+
+   /** 
+    * Returns the "EqualVolume" version of the 'stream ID'
+    * @param osStreamID The value of the OS' version of the 'stream ID'
+    * @return the slot of the stream, INVALID_STREAM if it is not registered
+    * */
+   public int getStreamID(int osStreamID) {
+
+      if ( osStreamID < 0 || osStreamID > MAX_OS_STREAM_ID ) {
+         return INVALID_STREAM;
+      }
+
+      return mStreamIDs[osStreamID];
+   }
+
+   /** 
+    * Returns the OS' version of the 'stream ID'
+    * @param streamID The value of "EqualVolume" version of the 'stream ID'
+    * */
+   public int getOSStreamID(int streamID) {
+      return mOSStreamIDs[streamID];
+   }
+
+   /**
+    * @return the mask of the streams synced by default (bit "n" set for stream "n")
+    */
+   public int getDefaultEnabledMask() {
+
+      int enabledMask = 0;
+
+      for ( int streamID = 0; streamID < mStreamCount; ++streamID ) {
+         if ( mDefaultEnabled[streamID] ) {
+            enabledMask |= ( 1 << streamID );
+         }
+      }
+
+      return enabledMask;
+   }
+
+} // End of public class VolumeStreams
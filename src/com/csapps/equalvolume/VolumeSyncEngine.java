@@ -0,0 +1,464 @@
+package com.csapps.equalvolume;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The volume sync logic of the app. Holds no Android references, all the volume I/O goes
+ * through a VolumeBackend so the engine can run (and be measured) on a plain JVM.
+ */
+public class VolumeSyncEngine {
+
+   /* Constants */
+   static final int INVALID_STREAM              = VolumeStreams.INVALID_STREAM;
+
+   /* Sentinel Constants */
+   static final int SENTINEL_NONE               =  0;
+   static final int SENTINEL_MAX                =  1;
+   static final int SENTINEL_MIN                =  2;
+
+   /* Variables */
+   private int []       mStreamMaxVolumes;
+   private AtomicInteger mEnabledMask;
+   private int          mStreamCount;
+   private long         mIpcCount             = 0;
+   private int          mLastEventIpcCount    = 0;
+   private long         mSyncIpcCount         = 0;
+   private long         mDetectIpcCount       = 0;
+   private long         mEchoIpcCount         = 0;
+   private long         mPollIpcCount         = 0;
+   private long         mIdleIpcCount         = 0;
+   private long         mPresetIpcCount       = 0;
+   private int          mSentinelState        = SENTINEL_NONE;
+
+   /* System resources */
+   private VolumeBackend  mBackend  = null;
+   private VolumeSnapshot mSnapshot = null;
+   private VolumeLevelMap mLevelMap = null;
+   private SelfWriteTracker mSelfWriteTracker = null;
+
+   public VolumeSyncEngine(VolumeBackend backend, VolumeSnapshot snapshot) {
+      this(backend, snapshot, null, null, null);
+   }
+
+   /**
+    * @param backend The backend to sync the streams through
+    * @param snapshot The snapshot of the stream volumes
+    * @param streamMaxVolumes The known stream maximums, null to fetch them from the backend
+    * @param levelMap The level mapping built from the known maximums, null to build it
+    * @param enabledMask The mask of the synced streams, shared with the UI (null to sync all the streams)
+    */
+   public VolumeSyncEngine(VolumeBackend backend, VolumeSnapshot snapshot, int [] streamMaxVolumes, VolumeLevelMap levelMap, AtomicInteger enabledMask) {
+
+      // Save the backend and the shared snapshot of the stream volumes
+      mBackend     = backend;
+      mSnapshot    = snapshot;
+      mStreamCount = backend.getStreamCount();
+
+      // Create the arrays
+      mStreamMaxVolumes     = new int[mStreamCount];
+
+      for ( int streamID = 0; streamID < mStreamCount; ++streamID ) {
+
+         // Fetch stream maximums (unless already known)
+         if ( streamMaxVolumes != null ) {
+            mStreamMaxVolumes[streamID] = streamMaxVolumes[streamID];
+         } else {
+            mStreamMaxVolumes[streamID] = mBackend.getStreamMaxVolume(streamID);
+            mIpcCount++;
+         }
+      }
+
+      // All the streams are synced unless a mask is given
+      mEnabledMask = ( enabledMask != null ) ? enabledMask : new AtomicInteger(( 1 << mStreamCount ) - 1);
+
+      // Build the level mapping between the streams (unless already built)
+      mLevelMap = ( streamMaxVolumes != null && levelMap != null ) ? levelMap : new VolumeLevelMap(mStreamMaxVolumes);
+
+      // Create the tracker of our own writes
+      mSelfWriteTracker = new SelfWriteTracker(mStreamCount);
+
+      // Fetch stream volumes
+      updatePreviousVolumes();
+
+   } // End of constructor VolumeSyncEngine
+
+   /**
+    * @return the number of backend (binder) calls of the last sync, from the start of
+    *         handleVolumeChange() to its end: the writes and their read-backs
+    */
+   public int getLastEventIpcCount() {
+      return mLastEventIpcCount;
+   }
+
+   /**
+    * @return the number of backend (binder) calls made since the engine was created, start included
+    */
+   public long getIpcCount() {
+      return mIpcCount;
+   }
+
+   /**
+    * @return the backend calls of the syncs (the sum of the per-event counts)
+    */
+   public long getSyncIpcCount() {
+      return mSyncIpcCount;
+   }
+
+   /**
+    * @return the backend calls of the detection passes which found an external change
+    */
+   public long getDetectIpcCount() {
+      return mDetectIpcCount;
+   }
+
+   /**
+    * @return the backend calls of the notified passes which only saw our own writes coming back
+    */
+   public long getEchoIpcCount() {
+      return mEchoIpcCount;
+   }
+
+   /**
+    * @return the backend calls of the fallback polls which found no change
+    */
+   public long getPollIpcCount() {
+      return mPollIpcCount;
+   }
+
+   /**
+    * @return the backend calls of the notified passes which found no change at all
+    */
+   public long getIdleIpcCount() {
+      return mIdleIpcCount;
+   }
+
+   /**
+    * @return the backend calls of the preset switches
+    */
+   public long getPresetIpcCount() {
+      return mPresetIpcCount;
+   }
+
+   /**
+    * @return the level mapping between the streams
+    */
+   public VolumeLevelMap getLevelMap() {
+      return mLevelMap;
+   }
+
+   /**
+    * @return the tracker of the writes made by the engine
+    */
+   public SelfWriteTracker getSelfWriteTracker() {
+      return mSelfWriteTracker;
+   }
+
+   /**
+    * @return the number of streams handled by the engine
+    */
+   public int getStreamCount() {
+      return mStreamCount;
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return the maximum volume of the stream
+    */
+   public int getStreamMaxVolume(int streamID) {
+      return mStreamMaxVolumes[streamID];
+   }
+
+   /**
+    * Enables or disables the syncing of a stream, safe to call from any thread
+    * @param streamID The "EqualVolume" stream ID
+    * @param enabled 'true' if the stream should be kept in sync
+    */
+   public void setStreamEnabled(int streamID, boolean enabled) {
+      updateEnabledMask(mEnabledMask, streamID, enabled);
+   }
+
+   /**
+    * Sets or clears the bit of a stream in a shared mask of synced streams, lock-free
+    * @param enabledMask The shared mask
+    * @param streamID The "EqualVolume" stream ID
+    * @param enabled 'true' if the stream should be kept in sync
+    * @return 'true' if the mask changed
+    */
+   static boolean updateEnabledMask(AtomicInteger enabledMask, int streamID, boolean enabled) {
+
+      int oldMask;
+      int newMask;
+
+      do {
+         oldMask = enabledMask.get();
+         newMask = ( enabled ) ? ( oldMask | ( 1 << streamID ) ) : ( oldMask & ~( 1 << streamID ) );
+      } while ( !enabledMask.compareAndSet(oldMask, newMask) );
+
+      return newMask != oldMask;
+   }
+
+   /**
+    * @param enabledMask A mask of synced streams
+    * @param streamID The "EqualVolume" stream ID
+    * @return 'true' if the stream is synced in the mask
+    */
+   static boolean isStreamEnabled(int enabledMask, int streamID) {
+      return ( enabledMask & ( 1 << streamID ) ) != 0;
+   }
+
+   /***
+    * Refreshes the snapshot (one read per stream) after a change notification and compares it
+    * against the previous levels. Levels left by our own writes are not reported, so a sync never
+    * triggers another one.
+    * @return the mask of the streams whose volume has changed (bit "n" set for stream "n"), 0 if none
+    */
+   public int getChangedStreamMask() {
+      return getChangedStreamMask(false);
+   }
+
+   /***
+    * Refreshes the snapshot like getChangedStreamMask(), the calls are counted by what the pass found
+    * @param poll 'true' for a fallback poll, 'false' for a pass run on a change notification
+    * @return the mask of the streams whose volume has changed (bit "n" set for stream "n"), 0 if none
+    */
+   public int getChangedStreamMask(boolean poll) {
+
+      long selfWrites  = mSelfWriteTracker.getSelfWriteCount();
+      int  changedMask = refreshSnapshot();
+
+      if ( changedMask != 0 ) {
+         mDetectIpcCount += mStreamCount;
+      } else if ( poll ) {
+         mPollIpcCount += mStreamCount;
+      } else if ( mSelfWriteTracker.getSelfWriteCount() != selfWrites ) {
+         mEchoIpcCount += mStreamCount;
+      } else {
+         mIdleIpcCount += mStreamCount;
+      }
+
+      return changedMask;
+   } // End of getChangedStreamMask
+
+   /**
+    * Picks the stream the others are synced to, out of the streams that changed together
+    * @param changedMask The mask of the changed streams
+    * @param deltas The change of every stream, indexed by stream ID
+    * @return the stream to sync to (INVALID_STREAM if the mask is empty)
+    */
+   public int pickSourceStream(int changedMask, int [] deltas) {
+
+      if ( changedMask == 0 ) {
+         return INVALID_STREAM;
+      }
+
+      // The largest change relative to the range of its stream wins
+      int sourceID = INVALID_STREAM;
+
+      for ( int mask = changedMask; mask != 0; mask &= ( mask - 1 ) ) {
+
+         int streamID = Integer.numberOfTrailingZeros(mask);
+
+         if ( sourceID == INVALID_STREAM ||
+              (long)Math.abs(deltas[streamID]) * mStreamMaxVolumes[sourceID] > (long)Math.abs(deltas[sourceID]) * mStreamMaxVolumes[streamID] ) {
+            sourceID = streamID;
+         }
+      }
+
+      return sourceID;
+   } // End of pickSourceStream
+
+   // Updates the snapshot with the current stream volumes
+   public void updatePreviousVolumes() {
+      refreshSnapshot();
+   } // End of updatePreviousVolumes
+
+   /**
+    * Handles the volume change performed either within or outside the app
+    * @param changedStreamID The id of the changed stream
+    * @return the sentinel level entered by this change (SENTINEL_NONE if none or already in it)
+    */
+   public int handleVolumeChange(int changedStreamID) {
+
+      // One read of the enabled streams for the whole event
+      int  enabledMask = mEnabledMask.get();
+      long ipcStart    = mIpcCount;
+
+      // Move the other streams to the level matching the changed one
+      applyLevelMap(changedStreamID, enabledMask);
+
+      // Check if any stream has reached "max" or "min"
+      int sentinel = checkForSentinelLevels(enabledMask);
+
+      // Only the calls of the sync itself, the detection passes are counted on their own
+      mLastEventIpcCount = (int)( mIpcCount - ipcStart );
+      mSyncIpcCount     += mLastEventIpcCount;
+
+      return sentinel;
+   } // End of handleVolumeChange
+
+   /**
+    * Sets every synced stream to the level the map gives for the changed stream. The levels all
+    * come from the snapshot, so a stream is only written when its target differs and only the
+    * written streams are read back.
+    * @param changedStreamID The id of the changed stream
+    * @param enabledMask The mask of the synced streams
+    */
+   private void applyLevelMap(int changedStreamID, int enabledMask) {
+
+      // The table has no row above the maximum of the stream
+      int sourceVolume = Math.min(mSnapshot.getLevel(changedStreamID), mStreamMaxVolumes[changedStreamID]);
+
+      // Skip the stream that caused the event, visit the synced streams only
+      for ( int streamMask = enabledMask & ~( 1 << changedStreamID ); streamMask != 0; streamMask &= streamMask - 1 ) {
+
+         int streamID     = Integer.numberOfTrailingZeros(streamMask);
+         int targetVolume = mLevelMap.getTargetLevel(changedStreamID, sourceVolume, streamID);
+
+         if ( targetVolume != mSnapshot.getLevel(streamID) ) {
+            writeStreamVolume(streamID, targetVolume, TraceLog.CAUSE_SYNC);
+         }
+      } // End of for
+   } // End of applyLevelMap
+
+   /**
+    * Moves the streams straight to the levels of a preset, bypassing the level map and the
+    * sentinel check. Streams already at their target are skipped, so a switch costs one tagged
+    * write (and its read-back) per changed stream and the observer ignores the writes. The calls
+    * are counted apart from the syncs. The sentinel state is re-derived from the written levels,
+    * so a preset applied at "max" does not hide the next move into "max".
+    * @param targetLevels The target of every "EqualVolume" stream (VolumePreset.NO_TARGET to skip it)
+    * @return the number of streams written
+    */
+   public int applyPreset(int [] targetLevels) {
+
+      int  writeCount = 0;
+      long ipcStart   = mIpcCount;
+
+      for ( int streamID = 0; streamID < mStreamCount; ++streamID ) {
+
+         int targetVolume = targetLevels[streamID];
+
+         if ( targetVolume != VolumePreset.NO_TARGET && targetVolume != mSnapshot.getLevel(streamID) ) {
+            writeStreamVolume(streamID, targetVolume, TraceLog.CAUSE_PRESET);
+            writeCount++;
+         }
+      }
+
+      mPresetIpcCount += mIpcCount - ipcStart;
+
+      // Nothing to report: the preset only decides the state the next sync starts from
+      mSentinelState = getPinnedSentinel(mEnabledMask.get());
+
+      return writeCount;
+   } // End of applyPreset
+
+   /**
+    * Pins all the synced streams to "max" (or "min") once any of them reaches it. Works on the
+    * snapshot, streams already at the sentinel level are not written again. The sentinel state
+    * only reports the transition into "max" or "min", staying at the limit (e.g. a held volume
+    * key) reports nothing, so the feedback is given once.
+    * @param enabledMask The mask of the synced streams
+    * @return the sentinel level entered (SENTINEL_NONE if none or already in it)
+    */
+   private int checkForSentinelLevels(int enabledMask) {
+
+      boolean anyStreamAtMax = false;
+      boolean anyStreamAtMin = false;
+
+      for ( int streamMask = enabledMask; streamMask != 0; streamMask &= streamMask - 1 ) {
+
+         int streamID     = Integer.numberOfTrailingZeros(streamMask);
+         int streamVolume = mSnapshot.getLevel(streamID);
+
+         if ( streamVolume == mStreamMaxVolumes[streamID]) {
+            anyStreamAtMax = true;
+         } else if (streamVolume == 0) {
+            anyStreamAtMin = true;
+         }
+      }
+
+      int sentinel = SENTINEL_NONE;
+
+      if ( anyStreamAtMax ) {
+         sentinel = SENTINEL_MAX;
+      } else if ( anyStreamAtMin ) {
+         sentinel = SENTINEL_MIN;
+      }
+
+      if ( sentinel != SENTINEL_NONE ) {
+
+         for ( int streamMask = enabledMask; streamMask != 0; streamMask &= streamMask - 1 ) {
+
+            int streamID       = Integer.numberOfTrailingZeros(streamMask);
+            int sentinelVolume = ( sentinel == SENTINEL_MAX ) ? mStreamMaxVolumes[streamID] : 0;
+
+            if ( mSnapshot.getLevel(streamID) != sentinelVolume ) {
+               writeStreamVolume(streamID, sentinelVolume, TraceLog.CAUSE_SENTINEL);
+            }
+         } // End of for
+      }
+
+      // Report the transitions into a sentinel level only
+      int enteredSentinel = ( sentinel != mSentinelState ) ? sentinel : SENTINEL_NONE;
+      mSentinelState      = sentinel;
+
+      return enteredSentinel;
+   } // End of checkForSentinelLevels
+
+   // The sentinel level all the synced streams are at (SENTINEL_NONE if they are not all at "max" or "min")
+   private int getPinnedSentinel(int enabledMask) {
+
+      if ( enabledMask == 0 ) {
+         return SENTINEL_NONE;
+      }
+
+      boolean allStreamsAtMax = true;
+      boolean allStreamsAtMin = true;
+
+      for ( int streamMask = enabledMask; streamMask != 0; streamMask &= streamMask - 1 ) {
+
+         int streamID     = Integer.numberOfTrailingZeros(streamMask);
+         int streamVolume = mSnapshot.getLevel(streamID);
+
+         allStreamsAtMax &= ( streamVolume == mStreamMaxVolumes[streamID] );
+         allStreamsAtMin &= ( streamVolume == 0 );
+      }
+
+      if ( allStreamsAtMax ) {
+         return SENTINEL_MAX;
+      } else if ( allStreamsAtMin ) {
+         return SENTINEL_MIN;
+      }
+
+      return SENTINEL_NONE;
+   }
+
+   // Reads all the stream volumes into the snapshot, counting the calls
+   private int refreshSnapshot() {
+
+      mIpcCount += mStreamCount;
+      return mSnapshot.refresh(mBackend, mSelfWriteTracker);
+   }
+
+   // Writes the volume of a stream to the backend, tagging and counting the calls and remembering
+   // the level. The level is read back once: the platform may clamp or refuse the write, and only
+   // the level it kept may be taken for ours, any other level seen later is an external change.
+   private void writeStreamVolume(int streamID, int volume, int cause) {
+
+      TraceLog.record(streamID, mSnapshot.getLevel(streamID), volume, cause);
+
+      mIpcCount += 2;
+      mSelfWriteTracker.expect(streamID, volume);
+      mBackend.setStreamVolume(streamID, volume, false);
+
+      int keptVolume = mBackend.getStreamVolume(streamID);
+
+      if ( keptVolume != volume ) {
+         TraceLog.record(streamID, volume, keptVolume, TraceLog.CAUSE_CLAMP);
+         mSelfWriteTracker.expectClamped(streamID, keptVolume);
+      }
+
+      mSnapshot.setLevel(streamID, keptVolume);
+   }
+
+} // End of public class VolumeSyncEngine
@@ -0,0 +1,675 @@
+package com.csapps.equalvolume;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Vibrator;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The long-lived service which keeps the streams in sync. Owns the volume observer and the sync
+ * engine and holds no UI references; activities bind to it to show the levels and pick the streams.
+ * All the audio I/O runs on a dedicated sync thread, the UI thread only gets the immutable result.
+ */
+public class VolumeSyncService extends Service implements VolumeEventBus.Subscriber, VolumeEventCoalescer.OnCoalescedChangeListener {
+
+   /* Constants */
+   static final private int NOTIFICATION_ID  = 1;
+   static final private int COALESCE_WINDOW  = 50;
+   static final private int API_LEVEL_O      = 26;
+   static final String         STATE_FILE    = "sync_state.bin";
+   static final private String PRESET_FILE   = "presets.bin";
+   static final private String LOG_TAG       = "EqualVolume";
+   static final private String EXTRA_TRACE   = "trace";
+   static final private String EXTRA_VERBOSE = "verbose";
+   static final private String ACTION_TOGGLE_STREAM = "com.csapps.equalvolume.TOGGLE_STREAM";
+   static final private String EXTRA_STREAM  = "stream";
+   static final private int VIBRATE_DURATION = 50;
+   static final private int VIBRATE_INTERVAL = 1000; // At most one vibration per interval
+   static final private long ONE_HOUR        = 3600000L;
+
+   /**
+    * Binder handed to the activities, local to the process
+    */
+   public class LocalBinder extends Binder {
+
+      public VolumeSyncService getService() {
+         return VolumeSyncService.this;
+      }
+   }
+
+   /* System resources */
+   private final IBinder    mBinder         = new LocalBinder();
+   private VolumeStreams    mVolumeStreams  = null;
+   private VolumeBackend    mVolumeBackend  = null;
+   private VolumeSnapshot   mVolumeSnapshot = null;
+   private VolumeSyncEngine mSyncEngine     = null;
+   private VolumeObserver   mVolumeObserver = null;
+   private HandlerTaskScheduler mScheduler  = null;
+   private VolumeEventCoalescer mCoalescer  = null;
+   private HandlerThread    mSyncThread     = null;
+   private HandlerThread    mWidgetThread   = null;
+   private Handler          mWidgetHandler  = null;
+   private Handler          mMainHandler    = null;
+   private BroadcastReceiver mWidgetReceiver = null;
+   private int []           mStreamMaxVolumes;
+   private SyncStateStore   mStateStore     = null;
+   private PresetStore      mPresetStore    = null;
+
+   /* Variables */
+   private volatile VolumeLevels mVolumeLevels   = null;
+   private volatile String []    mPresetNames    = new String[0];
+   private long                  mCreateTime     = 0;
+   private volatile long         mColdStartTime  = 0;
+   private final SyncMetrics     mSyncMetrics    = new SyncMetrics();
+   private final AtomicInteger   mEnabledMask    = new AtomicInteger();
+   private final VolumeEventBus  mEventBus       = new VolumeEventBus();
+   private final SyncListenerSubscriber mSyncListener = new SyncListenerSubscriber();
+   private volatile long         mObserverStartTime = 0;
+   private Vibrator              mVibrator       = null;
+   private long                  mLastVibrateTime = 0;
+   private int []                mWidgetLevels   = null;
+   private int                   mWidgetEnabledMask = 0;
+   private boolean               mWidgetsPresent = false; // Widget thread only
+
+   @Override
+   public void onCreate() {
+      super.onCreate();
+
+      mCreateTime = SystemClock.uptimeMillis();
+
+      // Text logs follow the log level, e.g. "adb shell setprop log.tag.EqualVolume VERBOSE"
+      TraceLog.setVerbose(Log.isLoggable(LOG_TAG, Log.VERBOSE));
+
+      // Handler of the UI thread, for handing over the results
+      mMainHandler = new Handler();
+
+      // The widget pushes are binder calls, they get their own low priority thread
+      mWidgetThread = new HandlerThread("EqualVolumeWidget", Process.THREAD_PRIORITY_BACKGROUND);
+      mWidgetThread.start();
+      mWidgetHandler = new Handler(mWidgetThread.getLooper());
+
+      // Ask once whether widgets are shown, the provider reports the later changes
+      mWidgetHandler.post(new Runnable() {
+
+         @Override
+         public void run() {
+            mWidgetsPresent = VolumeWidgetProvider.hasWidgets(VolumeSyncService.this);
+         }
+      });
+
+      mWidgetReceiver = new BroadcastReceiver() {
+
+         @Override
+         public void onReceive(Context context, Intent intent) {
+
+            mWidgetsPresent = intent.getBooleanExtra(VolumeWidgetProvider.EXTRA_PRESENT, false);
+
+            // A new or updated widget only shows the saved state, push the current levels
+            if ( mWidgetsPresent && mVolumeLevels != null ) {
+               mWidgetLevels = null;
+               updateWidgets(mVolumeLevels);
+            }
+         }
+      };
+      registerReceiver(mWidgetReceiver, new IntentFilter(VolumeWidgetProvider.ACTION_WIDGETS_CHANGED), VolumeWidgetProvider.PERMISSION_WIDGETS, mWidgetHandler);
+
+      // Subscribe to the volume events: the metrics and the sync on the sync thread (where the
+      // events are published), the UI and the widgets on their own threads
+      mEventBus.subscribe(mSyncMetrics, null);
+      mEventBus.subscribe(this, null);
+      mEventBus.subscribe(new VolumeEventBus.Subscriber() {
+
+         @Override
+         public void onVolumeEvent(VolumeEvent event) {
+            if ( event.getType() == VolumeEvent.TYPE_STREAMS_SYNCED ) {
+               updateWidgets(event.getVolumeLevels());
+            }
+         }
+      }, new HandlerExecutor(mWidgetHandler));
+      mEventBus.subscribe(mSyncListener, new HandlerExecutor(mMainHandler));
+
+      // Register the streams to handle (the accessibility stream only exists from Android O)
+      mVolumeStreams = VolumeStreams.createDefault(Build.VERSION.SDK_INT >= API_LEVEL_O);
+      mEnabledMask.set(mVolumeStreams.getDefaultEnabledMask());
+
+      // Start the sync thread
+      mSyncThread = new HandlerThread("EqualVolumeSync", Process.THREAD_PRIORITY_DEFAULT);
+      mSyncThread.start();
+
+      // Create the scheduler for the deferred work, running on the sync thread
+      mScheduler = new HandlerTaskScheduler(mSyncThread.getLooper());
+
+      // Everything touching the AudioManager is created on the sync thread
+      mScheduler.post(new Runnable() {
+
+         @Override
+         public void run() {
+            createSyncResources();
+         }
+      });
+
+      // Stay in the foreground so Android does not kill the sync
+      startForeground(NOTIFICATION_ID, buildNotification());
+   }
+
+   // Creates the sync resources, runs on the sync thread
+   private void createSyncResources() {
+
+      // Get the device volume backend
+      mVolumeBackend = new AudioManagerBackend(this, mVolumeStreams);
+
+      // Create the volume snapshot shared by the engine and the observer
+      mVolumeSnapshot = new VolumeSnapshot(mVolumeBackend.getStreamCount());
+
+      // Load the state saved by the last run (one read)
+      mStateStore = new SyncStateStore(new File(getFilesDir(), STATE_FILE));
+
+      // The presets are read after the cold start (see loadPresets)
+      mPresetStore = new PresetStore(new File(getFilesDir(), PRESET_FILE));
+
+      SyncState syncState = mStateStore.load(Build.FINGERPRINT);
+
+      if ( syncState != null && syncState.matches(mVolumeStreams) ) {
+
+         // Show the last known levels right away
+         for ( int streamID = 0; streamID < syncState.getStreamCount(); ++streamID ) {
+            mVolumeSnapshot.setLevel(streamID, syncState.getLevel(streamID));
+         }
+
+         mStreamMaxVolumes = syncState.getMaxVolumes();
+         publishLevels();
+
+         // Create the sync engine from the saved maximums and mapping (fills the snapshot)
+         mEnabledMask.set(syncState.getEnabledMask());
+         mSyncEngine = new VolumeSyncEngine(mVolumeBackend, mVolumeSnapshot, mStreamMaxVolumes, syncState.getLevelMap(), mEnabledMask);
+
+         // A level above a saved maximum means the maximums changed without a new build, rebuild
+         if ( !levelsFitMaxVolumes() ) {
+
+            if ( TraceLog.isVerbose() ) Log.v("Equal Volume", "Saved stream maximums are stale, rebuilding the sync state");
+
+            mSyncEngine = null;
+         }
+      }
+
+      if ( mSyncEngine == null ) {
+
+         // Create the sync engine (fetches the stream maximums and fills the snapshot)
+         mSyncEngine = new VolumeSyncEngine(mVolumeBackend, mVolumeSnapshot, null, null, mEnabledMask);
+
+         mStreamMaxVolumes = new int[mSyncEngine.getStreamCount()];
+         for ( int streamID = 0; streamID < mStreamMaxVolumes.length; ++streamID ) {
+            mStreamMaxVolumes[streamID] = mSyncEngine.getStreamMaxVolume(streamID);
+         }
+
+         saveState();
+      }
+
+      // The sentinel feedback (replaces the per-stream vibrate flag of the writes)
+      mVibrator = (Vibrator)getSystemService(VIBRATOR_SERVICE);
+
+      // Create the coalescer of the volume event bursts
+      mCoalescer = new VolumeEventCoalescer(mVolumeBackend.getStreamCount(), mScheduler, COALESCE_WINDOW, this);
+
+      // Create the volume observer
+      mVolumeObserver    = new VolumeObserver(new VolumeBroadcastSource(this, mScheduler), mScheduler, mSyncEngine, mEventBus);
+      mObserverStartTime = SystemClock.elapsedRealtime();
+
+      // Show the initial levels
+      publishLevels();
+
+      mColdStartTime = SystemClock.uptimeMillis() - mCreateTime;
+
+      if ( TraceLog.isVerbose() ) Log.v("Equal Volume", "Sync cold start (ms) = "+mColdStartTime+", from saved state = "+( syncState != null ));
+
+      // Read the presets off the cold start path, before the menu needs them
+      mScheduler.post(new Runnable() {
+
+         @Override
+         public void run() {
+            loadPresets();
+         }
+      });
+   }
+
+   // Reads the presets and publishes their names for the UI, runs on the sync thread
+   private void loadPresets() {
+      mPresetNames = mPresetStore.getNames();
+   }
+
+   // Saves the sync state for the next cold start, runs on the sync thread
+   private void saveState() {
+
+      int [] levels = new int[mStreamMaxVolumes.length];
+
+      for ( int streamID = 0; streamID < levels.length; ++streamID ) {
+         levels[streamID] = mVolumeSnapshot.getLevel(streamID);
+      }
+
+      mStateStore.save(new SyncState(getOSStreamIDs(), mStreamMaxVolumes, levels, mEnabledMask.get(), mSyncEngine.getLevelMap()), Build.FINGERPRINT);
+   }
+
+   // 'true' if every level of the snapshot is within the maximum of its stream
+   private boolean levelsFitMaxVolumes() {
+
+      for ( int streamID = 0; streamID < mStreamMaxVolumes.length; ++streamID ) {
+         if ( mVolumeSnapshot.getLevel(streamID) > mStreamMaxVolumes[streamID] ) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   @Override
+   public int onStartCommand(Intent intent, int flags, int startId) {
+
+      // Tracing can be switched at runtime, e.g. "am startservice --ez trace true"
+      if ( intent != null ) {
+
+         if ( intent.hasExtra(EXTRA_TRACE) ) {
+            TraceLog.setEnabled(intent.getBooleanExtra(EXTRA_TRACE, false));
+         }
+
+         if ( intent.hasExtra(EXTRA_VERBOSE) ) {
+            TraceLog.setVerbose(intent.getBooleanExtra(EXTRA_VERBOSE, false));
+         }
+
+         if ( ACTION_TOGGLE_STREAM.equals(intent.getAction()) ) {
+            toggleStream(intent.getIntExtra(EXTRA_STREAM, VolumeStreams.INVALID_STREAM));
+         }
+      }
+
+      // Keep running until explicitly stopped
+      return START_STICKY;
+   }
+
+   /**
+    * Writes the metrics and the trace, e.g. "adb shell dumpsys activity service com.csapps.equalvolume/.VolumeSyncService"
+    */
+   @Override
+   protected void dump(FileDescriptor fd, PrintWriter writer, String [] args) {
+      writeMetrics(writer);
+      TraceLog.dump(writer);
+   }
+
+   /**
+    * @return the metrics of the sync pipeline as text (see writeMetrics)
+    */
+   public String getMetricsReport() {
+
+      StringWriter report = new StringWriter();
+      PrintWriter  writer = new PrintWriter(report);
+
+      writeMetrics(writer);
+      writer.flush();
+
+      return report.toString();
+   }
+
+   /**
+    * Writes the metrics of the sync pipeline and of its parts
+    * @param writer The writer to report to
+    */
+   public void writeMetrics(PrintWriter writer) {
+
+      mSyncMetrics.writeReport(writer);
+
+      // The parts are created on the sync thread, the counters are read as they are
+      VolumeObserver       volumeObserver = mVolumeObserver;
+      VolumeEventCoalescer coalescer      = mCoalescer;
+      VolumeSyncEngine     syncEngine     = mSyncEngine;
+
+      if ( volumeObserver != null ) {
+         long elapsed = Math.max(1, SystemClock.elapsedRealtime() - mObserverStartTime);
+
+         writer.println("Volume observer wakeups = "+volumeObserver.getWakeupCount()+", per hour = "+( volumeObserver.getWakeupCount() * ONE_HOUR ) / elapsed);
+      }
+
+      if ( coalescer != null ) {
+         writer.println("Volume events = "+coalescer.getRawEventCount()+", applied = "+coalescer.getAppliedCount()+", max merged = "+coalescer.getMaxMergeCount());
+      }
+
+      if ( syncEngine != null ) {
+         writer.println("Own writes seen = "+syncEngine.getSelfWriteTracker().getSelfWriteCount()+", overridden = "+syncEngine.getSelfWriteTracker().getOverrideCount()+", clamped = "+syncEngine.getSelfWriteTracker().getClampCount());
+         writer.println("Backend calls = "+syncEngine.getIpcCount()+": syncs = "+syncEngine.getSyncIpcCount()+", detections = "+syncEngine.getDetectIpcCount()
+               +", echo refreshes = "+syncEngine.getEchoIpcCount()+", fallback polls = "+syncEngine.getPollIpcCount()
+               +", idle refreshes = "+syncEngine.getIdleIpcCount()+", presets = "+syncEngine.getPresetIpcCount());
+         writer.println("Volume snapshot hits = "+mVolumeSnapshot.getHits()+", misses = "+mVolumeSnapshot.getMisses());
+      }
+
+      writer.println("Scheduler fires = "+mScheduler.getFireCount()+", cold start (ms) = "+mColdStartTime);
+      writer.println("Bus events = "+mEventBus.getPublishCount()+", subscribers = "+mEventBus.getSubscriberCount());
+   } // End of writeMetrics
+
+   @Override
+   public IBinder onBind(Intent intent) {
+      return mBinder;
+   }
+
+   @Override
+   public void onDestroy() {
+
+      // Release the sync resources on the sync thread, then let it end
+      mScheduler.post(new Runnable() {
+
+         @Override
+         public void run() {
+
+            // Stop observing the volume changes and drop the pending work
+            mVolumeObserver.release();
+            mScheduler.removeCallbacksAndMessages(null);
+
+            // Keep the last levels for the next cold start
+            saveState();
+
+            if ( TraceLog.isVerbose() ) Log.v("Equal Volume", getMetricsReport());
+
+            // Nothing is published anymore, the widget thread can end
+            mWidgetThread.quit();
+
+            Looper.myLooper().quit();
+         }
+      });
+
+      // Drop the pending results
+      unregisterReceiver(mWidgetReceiver);
+      mMainHandler.removeCallbacksAndMessages(null);
+
+      stopForeground(true);
+
+      super.onDestroy();
+   }
+
+   // Builds the notification shown while the service is in the foreground
+   private Notification buildNotification() {
+
+      PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+
+      return new Notification.Builder(getApplicationContext())
+      .setSmallIcon(R.drawable.ic_launcher)
+      .setContentTitle("Equal Volume")
+      .setContentText("Keeping the volumes in sync")
+      .setContentIntent(contentIntent)
+      .build();
+   }
+
+   /**
+    * Sets (or clears, with null) the UI listener. Only a weak reference is kept, a listener that is
+    * never cleared does not keep its activity (and the view tree) alive.
+    * @param listener The listener to call after every sync
+    */
+   public void setOnSyncListener(SyncListenerSubscriber.OnSyncListener listener) {
+      mSyncListener.setOnSyncListener(listener);
+   }
+
+   /**
+    * Records the time the UI took to show a sync (called on the UI thread once the levels are rendered)
+    * @param nanos The duration in nanoseconds, from the end of the sync
+    */
+   public void recordUiLatency(long nanos) {
+      mSyncMetrics.recordUi(nanos);
+   }
+
+   /**
+    * @return the registry of the streams handled by the service
+    */
+   public VolumeStreams getVolumeStreams() {
+      return mVolumeStreams;
+   }
+
+   /**
+    * @return the levels after the last sync (null until the sync thread is up)
+    */
+   public VolumeLevels getVolumeLevels() {
+      return mVolumeLevels;
+   }
+
+   /**
+    * Enables or disables the syncing of a stream. The mask is published right away (the sync engine
+    * reads it lock-free), only the saving of the state goes to the sync thread.
+    * @param streamID The "EqualVolume" stream ID
+    * @param enabled 'true' if the stream should be kept in sync
+    */
+   public void setStreamEnabled(int streamID, boolean enabled) {
+
+      if ( VolumeSyncEngine.updateEnabledMask(mEnabledMask, streamID, enabled) ) {
+
+         mScheduler.post(new Runnable() {
+
+            @Override
+            public void run() {
+               if ( mSyncEngine != null ) {
+                  saveState();
+                  postWidgetUpdate(mVolumeLevels);
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * @param context The context
+    * @param streamID The "EqualVolume" stream ID
+    * @return the intent toggling the syncing of the stream, starting the service if needed (e.g. for the widget)
+    */
+   static PendingIntent getToggleIntent(Context context, int streamID) {
+
+      Intent intent = new Intent(context, VolumeSyncService.class);
+      intent.setAction(ACTION_TOGGLE_STREAM);
+      intent.putExtra(EXTRA_STREAM, streamID);
+
+      // One pending intent per stream
+      return PendingIntent.getService(context, streamID, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+   }
+
+   // Toggles the syncing of a stream once the saved state is loaded (a fresh start loads it on the sync thread)
+   private void toggleStream(final int streamID) {
+
+      mScheduler.post(new Runnable() {
+
+         @Override
+         public void run() {
+            if ( streamID >= 0 && streamID < mVolumeStreams.getStreamCount() ) {
+               setStreamEnabled(streamID, !isStreamEnabled(streamID));
+            }
+         }
+      });
+   }
+
+   /**
+    * @param streamID The "EqualVolume" stream ID
+    * @return 'true' if the stream is kept in sync
+    */
+   public boolean isStreamEnabled(int streamID) {
+      return VolumeSyncEngine.isStreamEnabled(mEnabledMask.get(), streamID);
+   }
+
+   /**
+    * @return the names of the presets (empty until they are loaded), no file access
+    */
+   public String [] getPresetNames() {
+      return mPresetNames.clone();
+   }
+
+   /**
+    * Applies a preset on the sync thread. The streams are written once each, straight to their
+    * targets, the writes are tagged so the observer does not sync them again.
+    * @param name The name of the preset
+    */
+   public void applyPreset(final String name) {
+
+      mScheduler.post(new Runnable() {
+
+         @Override
+         public void run() {
+
+            if ( mSyncEngine == null ) {
+               return;
+            }
+
+            long startTime = System.nanoTime();
+
+            VolumePreset preset = mPresetStore.getPreset(name);
+
+            if ( preset == null ) {
+               return;
+            }
+
+            int  writeCount = mSyncEngine.applyPreset(preset.resolve(mVolumeStreams, mStreamMaxVolumes));
+            long endTime    = System.nanoTime();
+
+            mSyncMetrics.recordPresetSwitch(endTime - startTime, writeCount);
+
+            if ( TraceLog.isVerbose() ) Log.v("Equal Volume", "Preset "+name+": "+writeCount+" writes in "+( endTime - startTime )/1000+" us");
+
+            // Let the UI and the widgets know (no changed mask, not counted as a sync)
+            mVolumeLevels = new VolumeLevels(mVolumeSnapshot, mStreamMaxVolumes, VolumeSyncEngine.SENTINEL_NONE);
+            mEventBus.publish(VolumeEvent.streamsSynced(0, VolumeSyncEngine.SENTINEL_NONE, writeCount, startTime, endTime, mVolumeLevels));
+         }
+      });
+   }
+
+   /**
+    * Handles the volume change performed either within or outside the app. The change is queued in
+    * the coalescer, bursts are applied once when the window closes.
+    * @param changedMask The mask of the changed streams (bit "n" set for stream "n")
+    */
+   @Override
+   public void onVolumeEvent(VolumeEvent event) {
+
+      // Queue the detected changes in the coalescer, bursts are synced once when the window closes
+      if ( event.getType() == VolumeEvent.TYPE_CHANGE_DETECTED ) {
+         mCoalescer.offer(event.getChangedMask(), mVolumeSnapshot);
+      }
+   }
+
+   /**
+    * Syncs the streams once per coalesced change
+    * @param changedMask The mask of the streams with a net change
+    * @param netDeltas The net change of every stream
+    * @param rawEvents The number of events folded into this change
+    */
+   @Override
+   public void onCoalescedChange(int changedMask, int [] netDeltas, int rawEvents) {
+
+      // Several streams changed together, the largest relative change is followed
+      int streamID = mSyncEngine.pickSourceStream(changedMask, netDeltas);
+
+      // Sync the streams
+      long startTime = System.nanoTime();
+      int  sentinel  = mSyncEngine.handleVolumeChange(streamID);
+      long endTime   = System.nanoTime();
+
+      // Entering "max" or "min" is felt even without a UI
+      if ( sentinel != VolumeSyncEngine.SENTINEL_NONE ) {
+         vibrate();
+      }
+
+      // Let the subscribers (metrics, UI) know
+      mVolumeLevels = new VolumeLevels(mVolumeSnapshot, mStreamMaxVolumes, sentinel);
+      mEventBus.publish(VolumeEvent.streamsSynced(changedMask, sentinel, mSyncEngine.getLastEventIpcCount(), startTime, endTime, mVolumeLevels));
+   }
+
+   // Gives the sentinel feedback, rate limited so a flapping limit does not buzz constantly
+   private void vibrate() {
+
+      long now = SystemClock.uptimeMillis();
+
+      if ( mVibrator == null || now - mLastVibrateTime < VIBRATE_INTERVAL ) {
+         return;
+      }
+
+      mLastVibrateTime = now;
+      mVibrator.vibrate(VIBRATE_DURATION);
+   }
+
+   /**
+    * Publishes a copy of the levels without a sync (e.g. at cold start), runs on the sync thread
+    */
+   private void publishLevels() {
+
+      mVolumeLevels = new VolumeLevels(mVolumeSnapshot, mStreamMaxVolumes, VolumeSyncEngine.SENTINEL_NONE);
+
+      long now = System.nanoTime();
+      mEventBus.publish(VolumeEvent.streamsSynced(0, VolumeSyncEngine.SENTINEL_NONE, 0, now, now, mVolumeLevels));
+   }
+
+   // Hands the levels to the widget thread
+   private void postWidgetUpdate(final VolumeLevels volumeLevels) {
+
+      mWidgetHandler.post(new Runnable() {
+
+         @Override
+         public void run() {
+            updateWidgets(volumeLevels);
+         }
+      });
+   }
+
+   /**
+    * Pushes the levels and the synced streams to the home-screen widgets, only when there are
+    * widgets and the levels changed since the last push, runs on the widget thread
+    * @param volumeLevels The current levels
+    */
+   private void updateWidgets(VolumeLevels volumeLevels) {
+
+      if ( !mWidgetsPresent ) {
+         return;
+      }
+
+      int     enabledMask = mEnabledMask.get();
+      boolean changed     = ( mWidgetLevels == null || enabledMask != mWidgetEnabledMask );
+
+      if ( mWidgetLevels == null ) {
+         mWidgetLevels = new int[volumeLevels.getStreamCount()];
+      }
+
+      for ( int streamID = 0; streamID < mWidgetLevels.length; ++streamID ) {
+         if ( mWidgetLevels[streamID] != volumeLevels.getLevel(streamID) ) {
+            mWidgetLevels[streamID] = volumeLevels.getLevel(streamID);
+            changed = true;
+         }
+      }
+
+      if ( !changed ) {
+         return;
+      }
+
+      mWidgetEnabledMask = enabledMask;
+
+      VolumeWidgetProvider.updateWidgets(this, getOSStreamIDs(), mWidgetLevels, mStreamMaxVolumes, enabledMask);
+   } // End of updateWidgets
+
+   // The OS stream ID of every "EqualVolume" stream
+   private int [] getOSStreamIDs() {
+
+      int [] osStreamIDs = new int[mVolumeStreams.getStreamCount()];
+
+      for ( int streamID = 0; streamID < osStreamIDs.length; ++streamID ) {
+         osStreamIDs[streamID] = mVolumeStreams.getOSStreamID(streamID);
+      }
+
+      return osStreamIDs;
+   }
+
+} // End of public class VolumeSyncService
@@ -0,0 +1,152 @@
+package com.csapps.equalvolume;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import java.io.File;
+
+/**
+ * Home-screen widget showing the level of every stream and whether it is synced; tapping a stream
+ * toggles its syncing. The widget never touches the AudioManager: the running service pushes the
+ * levels when they change, and without it the widget shows the state saved by the last run. The
+ * service is told when widgets come and go, so it never has to query them on a level change.
+ */
+public class VolumeWidgetProvider extends AppWidgetProvider {
+
+   /* Constants */
+   static final String ACTION_WIDGETS_CHANGED = "com.csapps.equalvolume.WIDGETS_CHANGED";
+   static final String PERMISSION_WIDGETS     = "com.csapps.equalvolume.permission.WIDGETS_CHANGED";
+   static final String EXTRA_PRESENT          = "present";
+
+   @Override
+   public void onEnabled(Context context) {
+      notifyService(context, true);
+   }
+
+   @Override
+   public void onDisabled(Context context) {
+      notifyService(context, false);
+   }
+
+   @Override
+   public void onUpdate(Context context, AppWidgetManager appWidgetManager, int [] appWidgetIds) {
+
+      // The state saved by the service (one small file read), only shown until a running service pushes
+      SyncState syncState = new SyncStateStore(new File(context.getFilesDir(), VolumeSyncService.STATE_FILE)).load(Build.FINGERPRINT);
+
+      RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_volume);
+
+      if ( syncState != null ) {
+
+         int [] osStreamIDs = new int[syncState.getStreamCount()];
+         int [] levels      = new int[syncState.getStreamCount()];
+
+         for ( int streamID = 0; streamID < osStreamIDs.length; ++streamID ) {
+            osStreamIDs[streamID] = syncState.getOSStreamID(streamID);
+            levels     [streamID] = syncState.getLevel(streamID);
+         }
+
+         views = buildViews(context, osStreamIDs, levels, syncState.getMaxVolumes(), syncState.getEnabledMask());
+      }
+
+      setOpenIntent(context, views);
+      appWidgetManager.updateAppWidget(appWidgetIds, views);
+
+      // The saved state may be behind, ask a running service for the current levels
+      notifyService(context, true);
+   }
+
+   /**
+    * Pushes the levels to all the widgets, only call it while there are widgets
+    * @param context The context
+    * @param osStreamIDs The OS stream ID of every "EqualVolume" stream
+    * @param levels The level of every stream
+    * @param maxVolumes The maximum volume of every stream
+    * @param enabledMask The mask of the synced streams (bit "n" set for stream "n")
+    */
+   public static void updateWidgets(Context context, int [] osStreamIDs, int [] levels, int [] maxVolumes, int enabledMask) {
+
+      RemoteViews views = buildViews(context, osStreamIDs, levels, maxVolumes, enabledMask);
+
+      setOpenIntent(context, views);
+      AppWidgetManager.getInstance(context).updateAppWidget(new ComponentName(context, VolumeWidgetProvider.class), views);
+   }
+
+   /**
+    * @param context The context
+    * @return 'true' if at least one widget is on the home screen (one binder call)
+    */
+   public static boolean hasWidgets(Context context) {
+
+      int [] appWidgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, VolumeWidgetProvider.class));
+
+      return ( appWidgetIds != null && appWidgetIds.length > 0 );
+   }
+
+   // Tells a running service whether widgets are shown (nobody receives it without the service)
+   private static void notifyService(Context context, boolean present) {
+
+      Intent intent = new Intent(ACTION_WIDGETS_CHANGED);
+      intent.setPackage(context.getPackageName());
+      intent.putExtra(EXTRA_PRESENT, present);
+
+      context.sendBroadcast(intent);
+   }
+
+   // One row per stream: the label, the level and whether it is synced, a tap toggles the syncing
+   private static RemoteViews buildViews(Context context, int [] osStreamIDs, int [] levels, int [] maxVolumes, int enabledMask) {
+
+      String synced    = context.getString(R.string.widget_synced);
+      String notSynced = context.getString(R.string.widget_not_synced);
+
+      RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_volume);
+      views.setViewVisibility(R.id.widget_levels, View.GONE);
+      views.removeAllViews(R.id.widget_streams);
+
+      for ( int streamID = 0; streamID < osStreamIDs.length; ++streamID ) {
+
+         String text = context.getString(getStreamLabel(osStreamIDs[streamID]))
+               +": "+levels[streamID]+"/"+maxVolumes[streamID]
+               +" ("+( ( VolumeSyncEngine.isStreamEnabled(enabledMask, streamID) ) ? synced : notSynced )+")";
+
+         RemoteViews row = new RemoteViews(context.getPackageName(), R.layout.widget_stream_row);
+         row.setTextViewText(R.id.widget_stream, text);
+         row.setOnClickPendingIntent(R.id.widget_stream, VolumeSyncService.getToggleIntent(context, streamID));
+
+         views.addView(R.id.widget_streams, row);
+      }
+
+      return views;
+   }
+
+   // Opens the app when the widget is tapped
+   private static void setOpenIntent(Context context, RemoteViews views) {
+      views.setOnClickPendingIntent(R.id.widget_root, PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class), 0));
+   }
+
+   /**
+    * @param osStreamID The OS' version of the 'stream ID'
+    * @return the resource ID of the label of the stream
+    */
+   private static int getStreamLabel(int osStreamID) {
+
+      switch ( osStreamID ) {
+         case VolumeStreams.OS_STREAM_RING:          return R.string.stream_ring_tone;
+         case VolumeStreams.OS_STREAM_MUSIC:         return R.string.stream_music;
+         case VolumeStreams.OS_STREAM_NOTIFICATION:  return R.string.stream_notifications;
+         case VolumeStreams.OS_STREAM_SYSTEM:        return R.string.stream_system_sounds;
+         case VolumeStreams.OS_STREAM_VOICE_CALL:    return R.string.stream_voice_calls;
+         case VolumeStreams.OS_STREAM_ALARM:         return R.string.stream_alarm;
+         case VolumeStreams.OS_STREAM_DTMF:          return R.string.stream_dtmf;
+         default:                                    return R.string.stream_accessibility;
+      }
+   }
+
+} // End of public class VolumeWidgetProvider
@@ -0,0 +1,82 @@
+package com.csapps.equalvolume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SelfWriteTrackerTest {
+
+   @Test
+   public void levelWithoutWriteIsExternal() {
+
+      SelfWriteTracker tracker = new SelfWriteTracker(2);
+
+      assertFalse(tracker.consume(0, 3));
+      assertEquals(0, tracker.getSelfWriteCount());
+      assertEquals(0, tracker.getOverrideCount());
+   }
+
+   @Test
+   public void writtenLevelIsOursOnce() {
+
+      SelfWriteTracker tracker = new SelfWriteTracker(2);
+
+      tracker.expect(1, 4);
+
+      assertTrue(tracker.consume(1, 4));
+      assertFalse(tracker.consume(1, 4));
+      assertEquals(1, tracker.getSelfWriteCount());
+   }
+
+   @Test
+   public void otherLevelAfterWriteIsExternal() {
+
+      SelfWriteTracker tracker = new SelfWriteTracker(2);
+
+      tracker.expect(0, 4);
+
+      assertFalse(tracker.consume(0, 6));
+      assertEquals(1, tracker.getOverrideCount());
+
+      // The tag is gone with the first level seen
+      assertFalse(tracker.consume(0, 4));
+   }
+
+   @Test
+   public void clampedLevelIsOurs() {
+
+      SelfWriteTracker tracker = new SelfWriteTracker(1);
+
+      tracker.expect(0, 0);
+      tracker.expectClamped(0, 1);
+
+      assertTrue(tracker.consume(0, 1));
+      assertEquals(1, tracker.getClampCount());
+   }
+
+   @Test
+   public void clampedTagDoesNotHideOtherLevels() {
+
+      SelfWriteTracker tracker = new SelfWriteTracker(1);
+
+      tracker.expect(0, 0);
+      tracker.expectClamped(0, 1);
+
+      assertFalse(tracker.consume(0, 3));
+      assertEquals(1, tracker.getOverrideCount());
+   }
+
+   @Test
+   public void streamsAreTrackedApart() {
+
+      SelfWriteTracker tracker = new SelfWriteTracker(2);
+
+      tracker.expect(0, 2);
+
+      assertFalse(tracker.consume(1, 2));
+      assertTrue(tracker.consume(0, 2));
+   }
+
+} // End of public class SelfWriteTrackerTest
@@ -0,0 +1,75 @@
+package com.csapps.equalvolume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class VolumeLevelMapTest {
+
+   /* Constants */
+   static final private int [] MAX_VOLUMES = { 7, 15, 5, 1 };
+
+   @Test
+   public void sentinelLevelsMapToSentinelLevels() {
+
+      VolumeLevelMap levelMap = new VolumeLevelMap(MAX_VOLUMES);
+
+      for ( int sourceID = 0; sourceID < MAX_VOLUMES.length; ++sourceID ) {
+         for ( int targetID = 0; targetID < MAX_VOLUMES.length; ++targetID ) {
+            assertEquals(0, levelMap.getTargetLevel(sourceID, 0, targetID));
+            assertEquals(MAX_VOLUMES[targetID], levelMap.getTargetLevel(sourceID, MAX_VOLUMES[sourceID], targetID));
+         }
+      }
+   }
+
+   @Test
+   public void inBetweenLevelsStayAwayFromSentinels() {
+
+      VolumeLevelMap levelMap = new VolumeLevelMap(MAX_VOLUMES);
+
+      for ( int level = 1; level < MAX_VOLUMES[1]; ++level ) {
+
+         // 15 steps onto 7 steps: rounded, never 0 or 7
+         int targetLevel = levelMap.getTargetLevel(1, level, 0);
+
+         assertTrue(targetLevel >= 1 && targetLevel <= MAX_VOLUMES[0] - 1);
+         assertEquals(Math.max(1, Math.min(6, ( level * 7 + 7 ) / 15)), targetLevel);
+      }
+   }
+
+   @Test
+   public void mappingIsMonotonic() {
+
+      VolumeLevelMap levelMap = new VolumeLevelMap(MAX_VOLUMES);
+
+      for ( int sourceID = 0; sourceID < MAX_VOLUMES.length; ++sourceID ) {
+         for ( int targetID = 0; targetID < MAX_VOLUMES.length; ++targetID ) {
+            for ( int level = 1; level <= MAX_VOLUMES[sourceID]; ++level ) {
+               assertTrue(levelMap.getTargetLevel(sourceID, level, targetID) >= levelMap.getTargetLevel(sourceID, level - 1, targetID));
+            }
+         }
+      }
+   }
+
+   @Test
+   public void restoredTableMapsTheSame() {
+
+      VolumeLevelMap levelMap = new VolumeLevelMap(MAX_VOLUMES);
+      VolumeLevelMap restored = new VolumeLevelMap(MAX_VOLUMES, levelMap.getTable().clone());
+
+      for ( int sourceID = 0; sourceID < MAX_VOLUMES.length; ++sourceID ) {
+         for ( int level = 0; level <= MAX_VOLUMES[sourceID]; ++level ) {
+            for ( int targetID = 0; targetID < MAX_VOLUMES.length; ++targetID ) {
+               assertEquals(levelMap.getTargetLevel(sourceID, level, targetID), restored.getTargetLevel(sourceID, level, targetID));
+            }
+         }
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void restoredTableMustMatchTheMaximums() {
+      new VolumeLevelMap(new int [] { 7, 15, 5, 2 }, new VolumeLevelMap(MAX_VOLUMES).getTable());
+   }
+
+} // End of public class VolumeLevelMapTest
@@ -0,0 +1,105 @@
+package com.csapps.equalvolume;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VolumeSnapshotTest {
+
+   /* Constants */
+   static final private int [] MAX_VOLUMES = { 7, 15, 7 };
+
+   /* Variables */
+   private InMemoryVolumeBackend mBackend;
+   private VolumeSnapshot        mSnapshot;
+   private SelfWriteTracker      mTracker;
+
+   @Before
+   public void setUp() {
+
+      mBackend  = new InMemoryVolumeBackend(MAX_VOLUMES);
+      mSnapshot = new VolumeSnapshot(MAX_VOLUMES.length);
+      mTracker  = new SelfWriteTracker(MAX_VOLUMES.length);
+   }
+
+   @Test
+   public void refreshReportsTheChangedStreams() {
+
+      mBackend.setExternalVolume(0, 3);
+      mBackend.setExternalVolume(2, 5);
+
+      assertEquals(( 1 << 0 ) | ( 1 << 2 ), mSnapshot.refresh(mBackend, mTracker));
+      assertEquals(3, mSnapshot.getLevel(0));
+      assertEquals(5, mSnapshot.getLevel(2));
+      assertEquals(3, mSnapshot.getDelta(0));
+      assertEquals(0, mSnapshot.getDelta(1));
+   }
+
+   @Test
+   public void refreshReadsEveryStreamOnce() {
+
+      mSnapshot.refresh(mBackend, mTracker);
+
+      assertEquals(MAX_VOLUMES.length, mBackend.getCallCount());
+      assertEquals(MAX_VOLUMES.length, mSnapshot.getMisses());
+   }
+
+   @Test
+   public void copyingTheLevelsIsNotAHit() {
+
+      mBackend.setExternalVolume(1, 9);
+      mSnapshot.refresh(mBackend, mTracker);
+
+      VolumeLevels volumeLevels = new VolumeLevels(mSnapshot, MAX_VOLUMES, VolumeSyncEngine.SENTINEL_NONE);
+
+      assertEquals(9, volumeLevels.getLevel(1));
+      assertEquals(0, mSnapshot.getHits());
+   }
+
+   @Test
+   public void unchangedStreamsAreNotReported() {
+
+      mBackend.setExternalVolume(1, 9);
+      mSnapshot.refresh(mBackend, mTracker);
+
+      assertEquals(0, mSnapshot.refresh(mBackend, mTracker));
+      assertEquals(0, mSnapshot.getDelta(1));
+   }
+
+   @Test
+   public void ownWriteIsNotReported() {
+
+      mTracker.expect(1, 6);
+      mBackend.setStreamVolume(1, 6, false);
+
+      assertEquals(0, mSnapshot.refresh(mBackend, mTracker));
+      assertEquals(6, mSnapshot.getLevel(1));
+      assertEquals(0, mSnapshot.getDelta(1));
+   }
+
+   @Test
+   public void externalChangeAfterOwnWriteIsReported() {
+
+      mTracker.expect(1, 6);
+      mBackend.setStreamVolume(1, 6, false);
+      mBackend.setExternalVolume(1, 8);
+
+      assertEquals(1 << 1, mSnapshot.refresh(mBackend, mTracker));
+      assertEquals(8, mSnapshot.getDelta(1));
+   }
+
+   @Test
+   public void deltaIsTakenFromTheCachedLevel() {
+
+      mBackend.setExternalVolume(0, 4);
+      mSnapshot.refresh(mBackend, mTracker);
+
+      mSnapshot.setLevel(0, 6);
+      mBackend.setExternalVolume(0, 2);
+
+      assertEquals(1 << 0, mSnapshot.refresh(mBackend, mTracker));
+      assertEquals(-4, mSnapshot.getDelta(0));
+   }
+
+} // End of public class VolumeSnapshotTest
@@ -0,0 +1,137 @@
+package com.csapps.equalvolume;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VolumeSyncEngineTest {
+
+   /* Constants */
+   static final private int [] MAX_VOLUMES = { 7, 15, 7, 7, 5 };
+   static final private int    ALL_STREAMS = ( 1 << MAX_VOLUMES.length ) - 1;
+
+   /* Variables */
+   private InMemoryVolumeBackend mBackend;
+   private VolumeSnapshot        mSnapshot;
+   private AtomicInteger         mEnabledMask;
+   private VolumeSyncEngine      mEngine;
+
+   @Before
+   public void setUp() {
+
+      mBackend     = new InMemoryVolumeBackend(MAX_VOLUMES);
+      mSnapshot    = new VolumeSnapshot(MAX_VOLUMES.length);
+      mEnabledMask = new AtomicInteger(ALL_STREAMS);
+      mEngine      = new VolumeSyncEngine(mBackend, mSnapshot, null, null, mEnabledMask);
+   }
+
+   // An external change of a stream, detected and synced as the service does
+   private int changeAndSync(int streamID, int level) {
+
+      mBackend.setExternalVolume(streamID, level);
+
+      int changedMask = mEngine.getChangedStreamMask();
+
+      assertEquals(1 << streamID, changedMask);
+
+      return mEngine.handleVolumeChange(streamID);
+   }
+
+   @Test
+   public void otherStreamsFollowTheChangedOne() {
+
+      changeAndSync(1, 8);
+
+      for ( int streamID = 0; streamID < MAX_VOLUMES.length; ++streamID ) {
+         assertEquals(mEngine.getLevelMap().getTargetLevel(1, 8, streamID), mBackend.peekStreamVolume(streamID));
+         assertEquals(mBackend.peekStreamVolume(streamID), mSnapshot.getLevel(streamID));
+      }
+   }
+
+   @Test
+   public void ownWritesAreNotDetectedAgain() {
+
+      changeAndSync(0, 3);
+
+      assertEquals(0, mEngine.getChangedStreamMask());
+   }
+
+   @Test
+   public void disabledStreamsAreLeftAlone() {
+
+      mEngine.setStreamEnabled(2, false);
+
+      changeAndSync(0, 4);
+
+      assertEquals(0, mBackend.peekStreamVolume(2));
+      assertEquals(mEngine.getLevelMap().getTargetLevel(0, 4, 3), mBackend.peekStreamVolume(3));
+   }
+
+   @Test
+   public void maxIsReportedOncePerTransition() {
+
+      assertEquals(VolumeSyncEngine.SENTINEL_MAX, changeAndSync(0, MAX_VOLUMES[0]));
+
+      for ( int streamID = 0; streamID < MAX_VOLUMES.length; ++streamID ) {
+         assertEquals(MAX_VOLUMES[streamID], mBackend.peekStreamVolume(streamID));
+      }
+
+      // Still at "max" (e.g. a held volume key): nothing new to report
+      assertEquals(VolumeSyncEngine.SENTINEL_NONE, mEngine.handleVolumeChange(0));
+
+      // Leaving "max" and coming back is a new transition
+      assertEquals(VolumeSyncEngine.SENTINEL_NONE, changeAndSync(0, 4));
+      assertEquals(VolumeSyncEngine.SENTINEL_MAX, changeAndSync(0, MAX_VOLUMES[0]));
+   }
+
+   @Test
+   public void presetLeavingMaxResetsTheSentinel() {
+
+      assertEquals(VolumeSyncEngine.SENTINEL_MAX, changeAndSync(0, MAX_VOLUMES[0]));
+
+      int [] targetLevels = { 3, 6, 3, 3, 2 };
+      mEngine.applyPreset(targetLevels);
+
+      // Back to "max" from the preset levels is a new transition
+      assertEquals(VolumeSyncEngine.SENTINEL_MAX, changeAndSync(0, MAX_VOLUMES[0]));
+   }
+
+   @Test
+   public void clampedWriteIsNotSyncedBack() {
+
+      int clampedID = MAX_VOLUMES.length - 1;
+
+      mBackend.setStreamMinVolume(clampedID, 1);
+      changeAndSync(0, 3);
+
+      // Muting leaves the clamped stream at 1, which must not pull the others back up
+      changeAndSync(0, 0);
+
+      assertEquals(0, mEngine.getChangedStreamMask());
+
+      for ( int streamID = 0; streamID < clampedID; ++streamID ) {
+         assertEquals(0, mBackend.peekStreamVolume(streamID));
+      }
+      assertEquals(1, mBackend.peekStreamVolume(clampedID));
+   }
+
+   @Test
+   public void eventCountsTheWritesAndReadBacksOnly() {
+
+      // Idle polls before the event are not part of it
+      mEngine.getChangedStreamMask(true);
+      mEngine.getChangedStreamMask(true);
+
+      mBackend.resetCallCount();
+      changeAndSync(1, 8);
+
+      long writes = mBackend.getWriteCount();
+
+      assertEquals(writes * 2, mEngine.getLastEventIpcCount());
+      assertEquals(2 * MAX_VOLUMES.length, mEngine.getPollIpcCount());
+   }
+
+} // End of public class VolumeSyncEngineTest
@@ -0,0 +1,114 @@
+package com.csapps.equalvolume;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A volume backend which keeps the stream volumes in memory. Used to run the sync engine
+ * on a plain JVM; every call is counted so the cost of an event can be measured. Thread-safe,
+ * like the AudioManager it stands for, so "external" changes can come from other threads.
+ */
+public class InMemoryVolumeBackend implements VolumeBackend {
+
+   /* Variables */
+   private AtomicIntegerArray mStreamVolumes;
+   private int []             mStreamMaxVolumes;
+   private int []             mStreamMinVolumes;
+   private AtomicLong         mCallCount  = new AtomicLong();
+   private AtomicLong         mWriteCount = new AtomicLong();
+
+   /**
+    * @param streamMaxVolumes The maximum volume of each stream, all streams start at 0
+    */
+   public InMemoryVolumeBackend(int [] streamMaxVolumes) {
+
+      mStreamMaxVolumes = streamMaxVolumes.clone();
+      mStreamMinVolumes = new int[streamMaxVolumes.length];
+      mStreamVolumes    = new AtomicIntegerArray(streamMaxVolumes.length);
+   }
+
+   @Override
+   public int getStreamCount() {
+      return mStreamVolumes.length();
+   }
+
+   @Override
+   public int getStreamVolume(int streamID) {
+
+      mCallCount.incrementAndGet();
+      return mStreamVolumes.get(streamID);
+   }
+
+   @Override
+   public int getStreamMaxVolume(int streamID) {
+
+      mCallCount.incrementAndGet();
+      return mStreamMaxVolumes[streamID];
+   }
+
+   @Override
+   public void setStreamVolume(int streamID, int volume, boolean vibrate) {
+
+      mCallCount.incrementAndGet();
+      mWriteCount.incrementAndGet();
+      mStreamVolumes.set(streamID, clamp(streamID, volume));
+   }
+
+   /**
+    * Makes the backend clamp a stream like the platform does, e.g. the voice call volume never
+    * goes below 1
+    * @param streamID The "EqualVolume" stream ID
+    * @param minVolume The lowest volume the stream takes
+    */
+   public void setStreamMinVolume(int streamID, int minVolume) {
+      mStreamMinVolumes[streamID] = minVolume;
+   }
+
+   /**
+    * Changes the volume of a stream from "outside", without counting it as a backend call
+    * @param streamID The "EqualVolume" stream ID
+    * @param volume The new volume of the stream
+    */
+   public void setExternalVolume(int streamID, int volume) {
+      mStreamVolumes.set(streamID, clamp(streamID, volume));
+   }
+
+   /**
+    * Reads the volume of a stream from "outside", without counting it as a backend call
+    * @param streamID The "EqualVolume" stream ID
+    * @return the current volume of the stream
+    */
+   public int peekStreamVolume(int streamID) {
+      return mStreamVolumes.get(streamID);
+   }
+
+   /**
+    * @return the number of backend calls made since the last reset
+    */
+   public long getCallCount() {
+      return mCallCount.get();
+   }
+
+   /**
+    * @return the number of volume writes made since the last reset
+    */
+   public long getWriteCount() {
+      return mWriteCount.get();
+   }
+
+   // Resets the backend call counters
+   public void resetCallCount() {
+      mCallCount.set(0);
+      mWriteCount.set(0);
+   }
+
+   private int clamp(int streamID, int volume) {
+
+      if ( volume < mStreamMinVolumes[streamID] ) {
+         return mStreamMinVolumes[streamID];
+      }
+
+      return ( volume > mStreamMaxVolumes[streamID] ) ? mStreamMaxVolumes[streamID] : volume;
+   }
+
+} // End of public class InMemoryVolumeBackend
@@ -0,0 +1,105 @@
+package com.csapps.equalvolume;
+
+import java.util.ArrayList;
+
+/**
+ * A task scheduler driven by a virtual clock, for running the sync pipeline deterministically on
+ * a plain JVM. Nothing runs until the clock is advanced; due tasks then run in due time order on
+ * the calling thread.
+ */
+public class ManualTaskScheduler implements TaskScheduler {
+
+   /* Variables */
+   private final ArrayList<Runnable> mTasks     = new ArrayList<Runnable>();
+   private final ArrayList<Long>     mDueTimes  = new ArrayList<Long>();
+   private long                      mTime      = 0;
+   private long                      mFireCount = 0;
+
+   @Override
+   public void schedule(Runnable task, long delayMillis) {
+
+      cancel(task);
+
+      mTasks.add(task);
+      mDueTimes.add(mTime + Math.max(0, delayMillis));
+   }
+
+   @Override
+   public void cancel(Runnable task) {
+
+      int index = mTasks.indexOf(task);
+
+      if ( index >= 0 ) {
+         mTasks.remove(index);
+         mDueTimes.remove(index);
+      }
+   }
+
+   @Override
+   public long getFireCount() {
+      return mFireCount;
+   }
+
+   /**
+    * @return the virtual time, in milliseconds
+    */
+   public long getTime() {
+      return mTime;
+   }
+
+   /**
+    * Moves the virtual clock forward, running every task falling due on the way (at its due time)
+    * @param timeMillis The new virtual time, in milliseconds (earlier times are ignored)
+    */
+   public void advanceTo(long timeMillis) {
+
+      while ( true ) {
+
+         // Find the earliest due task (the first scheduled on a tie)
+         int  next    = -1;
+         long nextDue = 0;
+
+         for ( int index = 0; index < mTasks.size(); ++index ) {
+
+            long dueTime = mDueTimes.get(index);
+
+            if ( dueTime <= timeMillis && ( next < 0 || dueTime < nextDue ) ) {
+               next    = index;
+               nextDue = dueTime;
+            }
+         }
+
+         if ( next < 0 ) {
+            break;
+         }
+
+         Runnable task = mTasks.remove(next);
+         mDueTimes.remove(next);
+
+         mTime = Math.max(mTime, nextDue);
+         mFireCount++;
+
+         task.run();
+      }
+
+      mTime = Math.max(mTime, timeMillis);
+   } // End of advanceTo
+
+   /**
+    * Runs every pending task (and the ones they schedule), however far in the future
+    */
+   public void runAll() {
+
+      while ( !mTasks.isEmpty() ) {
+
+         long lastDue = mTime;
+
+         for ( int index = 0; index < mDueTimes.size(); ++index ) {
+            lastDue = Math.max(lastDue, mDueTimes.get(index));
+         }
+
+         advanceTo(lastDue);
+      }
+   }
+
+} // End of public class ManualTaskScheduler
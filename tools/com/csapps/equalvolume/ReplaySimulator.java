@@ -0,0 +1,411 @@
+package com.csapps.equalvolume;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Replays recorded volume events through the sync pipeline (coalescer, sync engine and snapshot)
+ * against an in-memory backend, on a plain JVM and in virtual time, so latency and IPC changes
+ * can be regression-tested without a phone. The trace is the "dumpsys" output of TraceLog; only
+ * the "external" events are inputs, the writes of the app are what is being measured. As on the
+ * device, every sync that writes triggers one more detection pass (the volume broadcast of our own
+ * writes); a change found by it, or found on another stream than the one an event touched, is a
+ * feedback loop.
+ *
+ * Usage: ReplaySimulator [trace file] [-max 7,15,7,7,5] [-min 0,0,0,0,1] [-window 50] [-iterations 100]
+ * (the minimums are the clamps of the platform, e.g. the voice call volume never goes below 1)
+ * (a synthetic trace of held and tapped volume keys is generated if no file is given)
+ */
+public class ReplaySimulator implements VolumeEventCoalescer.OnCoalescedChangeListener {
+
+   /* Constants */
+   static final private int [] DEFAULT_MAX_VOLUMES = { 7, 15, 7, 7, 5 };
+   static final private int [] DEFAULT_MIN_VOLUMES = { 0, 0, 0, 0, 1 };
+   static final private int    DEFAULT_WINDOW      = 50;
+   static final private int    DEFAULT_ITERATIONS  = 100;
+   static final private int    SYNTHETIC_EVENTS    = 10000;
+   static final private long   SYNTHETIC_SEED      = 42;
+   static final private String EXTERNAL_CAUSE      = "external";
+
+   /* Trace */
+   private long []      mTimes;
+   private int []       mStreams;
+   private int []       mLevels;
+   private int          mEventCount;
+   private int []       mMaxVolumes;
+   private int []       mMinVolumes;
+   private long         mWindowMillis;
+
+   /* Replay resources */
+   private InMemoryVolumeBackend mBackend   = null;
+   private VolumeSnapshot        mSnapshot  = null;
+   private VolumeSyncEngine      mEngine    = null;
+   private VolumeEventCoalescer  mCoalescer = null;
+   private ManualTaskScheduler   mScheduler = null;
+   private Runnable              mEchoTask  = null;
+
+   /* Results of the last replay */
+   private long             mDetections    = 0;
+   private long             mSyncs         = 0;
+   private long             mSentinels     = 0;
+   private long             mFeedbackLoops = 0;
+   private long             mPendingSince  = -1;
+   private LatencyHistogram mConvergence   = null; // Fed with virtual milliseconds, detection to equalized
+
+   /**
+    * @param times The times of the events, in nanoseconds
+    * @param streams The "EqualVolume" stream IDs of the events
+    * @param levels The levels the streams were set to
+    * @param eventCount The number of events
+    * @param maxVolumes The maximum volume of each stream
+    * @param windowMillis The coalescing window
+    */
+   public ReplaySimulator(long [] times, int [] streams, int [] levels, int eventCount, int [] maxVolumes, long windowMillis) {
+
+      mTimes        = times;
+      mStreams      = streams;
+      mLevels       = levels;
+      mEventCount   = eventCount;
+      mMaxVolumes   = maxVolumes;
+      mWindowMillis = windowMillis;
+   }
+
+   /**
+    * Makes the backend clamp the streams like the platform does
+    * @param minVolumes The lowest volume of each stream
+    */
+   public void setMinVolumes(int [] minVolumes) {
+      mMinVolumes = minVolumes;
+   }
+
+   /**
+    * Reads the external events of a TraceLog dump, other lines are skipped
+    * @param reader The dump
+    * @param maxVolumes The maximum volume of each stream on the recording device
+    * @param windowMillis The coalescing window
+    * @return the simulator of the trace
+    */
+   public static ReplaySimulator fromTraceDump(BufferedReader reader, int [] maxVolumes, long windowMillis) throws IOException {
+
+      long [] times   = new long[1024];
+      int []  streams = new int[1024];
+      int []  levels  = new int[1024];
+      int     count   = 0;
+      String  line;
+
+      while ( ( line = reader.readLine() ) != null ) {
+
+         // "<nanos> stream=<id> <old>-><new> <cause>"
+         String [] fields = line.trim().split(" ");
+
+         if ( fields.length != 4 || !fields[1].startsWith("stream=") || !EXTERNAL_CAUSE.equals(fields[3]) ) {
+            continue;
+         }
+
+         int arrow = fields[2].indexOf("->");
+
+         if ( arrow < 0 ) {
+            continue;
+         }
+
+         if ( count == times.length ) {
+            times   = copyOf(times, count * 2);
+            streams = copyOf(streams, count * 2);
+            levels  = copyOf(levels, count * 2);
+         }
+
+         try {
+            times  [count] = Long.parseLong(fields[0]);
+            streams[count] = Integer.parseInt(fields[1].substring("stream=".length()));
+            levels [count] = Integer.parseInt(fields[2].substring(arrow + 2));
+         } catch (NumberFormatException e) {
+            continue;
+         }
+
+         if ( streams[count] >= 0 && streams[count] < maxVolumes.length ) {
+            count++;
+         }
+      }
+
+      return new ReplaySimulator(times, streams, levels, count, maxVolumes, windowMillis);
+   } // End of fromTraceDump
+
+   /**
+    * Builds a trace of volume key use: single taps and held keys (a step every 50-100ms) on
+    * random streams, spread over idle gaps
+    * @param eventCount The number of events
+    * @param maxVolumes The maximum volume of each stream
+    * @param windowMillis The coalescing window
+    * @param seed The seed of the trace
+    * @return the simulator of the trace
+    */
+   public static ReplaySimulator synthetic(int eventCount, int [] maxVolumes, long windowMillis, long seed) {
+
+      Random  random  = new Random(seed);
+      long [] times   = new long[eventCount];
+      int []  streams = new int[eventCount];
+      int []  levels  = new int[eventCount];
+      int []  current = new int[maxVolumes.length];
+      long    time    = 0;
+      int     index   = 0;
+
+      while ( index < eventCount ) {
+
+         // An idle gap, then a tap or a held key on one stream
+         time += 500 + random.nextInt(5000);
+
+         int streamID = random.nextInt(maxVolumes.length);
+         int step     = ( random.nextBoolean() ) ? 1 : -1;
+         int presses  = ( random.nextInt(4) == 0 ) ? 2 + random.nextInt(maxVolumes[streamID]) : 1;
+
+         for ( int press = 0; press < presses && index < eventCount; ++press ) {
+
+            current[streamID] = Math.max(0, Math.min(maxVolumes[streamID], current[streamID] + step));
+
+            times  [index] = time * 1000000L;
+            streams[index] = streamID;
+            levels [index] = current[streamID];
+            index++;
+
+            time += 50 + random.nextInt(50);
+         }
+      }
+
+      return new ReplaySimulator(times, streams, levels, eventCount, maxVolumes, windowMillis);
+   } // End of synthetic
+
+   /**
+    * Replays the whole trace once, from fresh state
+    */
+   public void replay() {
+
+      mBackend   = new InMemoryVolumeBackend(mMaxVolumes);
+
+      for ( int streamID = 0; mMinVolumes != null && streamID < mMinVolumes.length && streamID < mMaxVolumes.length; ++streamID ) {
+         mBackend.setStreamMinVolume(streamID, mMinVolumes[streamID]);
+      }
+
+      mSnapshot  = new VolumeSnapshot(mMaxVolumes.length);
+      mEngine    = new VolumeSyncEngine(mBackend, mSnapshot);
+      mScheduler = new ManualTaskScheduler();
+      mCoalescer = new VolumeEventCoalescer(mMaxVolumes.length, mScheduler, mWindowMillis, this);
+
+      // The detection pass the volume broadcast of our own writes triggers, nothing must be found
+      mEchoTask = new Runnable() {
+
+         @Override
+         public void run() {
+            if ( detect() != 0 ) {
+               mFeedbackLoops++;
+            }
+         }
+      };
+
+      mDetections    = 0;
+      mSyncs         = 0;
+      mSentinels     = 0;
+      mFeedbackLoops = 0;
+      mPendingSince  = -1;
+      mConvergence   = new LatencyHistogram();
+
+      mBackend.resetCallCount();
+
+      long startTime = ( mEventCount > 0 ) ? mTimes[0] : 0;
+
+      for ( int index = 0; index < mEventCount; ++index ) {
+
+         // Run the window closes falling before the event
+         mScheduler.advanceTo(( mTimes[index] - startTime ) / 1000000L);
+
+         // The key press, then the detection pass of the observer
+         mBackend.setExternalVolume(mStreams[index], mLevels[index]);
+
+         // Only the pressed stream may show up, any other one is our own write coming back
+         if ( ( detect() & ~( 1 << mStreams[index] ) ) != 0 ) {
+            mFeedbackLoops++;
+         }
+
+         checkEqualized(mStreams[index]);
+      }
+
+      // Close the last window
+      mScheduler.runAll();
+   } // End of replay
+
+   // One detection pass of the observer, the changes go to the coalescer
+   private int detect() {
+
+      int changedMask = mEngine.getChangedStreamMask();
+
+      if ( changedMask != 0 ) {
+
+         mDetections++;
+
+         if ( mPendingSince < 0 ) {
+            mPendingSince = mScheduler.getTime();
+         }
+
+         mCoalescer.offer(changedMask, mSnapshot);
+      }
+
+      return changedMask;
+   } // End of detect
+
+   // Ends the pending convergence once every stream is at the level the map gives for the source
+   // (or at the minimum the platform clamps it to)
+   private void checkEqualized(int sourceID) {
+
+      if ( mPendingSince < 0 ) {
+         return;
+      }
+
+      int sourceLevel = mBackend.peekStreamVolume(sourceID);
+
+      for ( int streamID = 0; streamID < mMaxVolumes.length; ++streamID ) {
+
+         int target = mEngine.getLevelMap().getTargetLevel(sourceID, sourceLevel, streamID);
+
+         if ( mMinVolumes != null && streamID < mMinVolumes.length ) {
+            target = Math.max(target, mMinVolumes[streamID]);
+         }
+
+         if ( streamID != sourceID && mBackend.peekStreamVolume(streamID) != target ) {
+            return;
+         }
+      }
+
+      mConvergence.record(mScheduler.getTime() - mPendingSince);
+      mPendingSince = -1;
+   } // End of checkEqualized
+
+   @Override
+   public void onCoalescedChange(int changedMask, int [] netDeltas, int rawEvents) {
+
+      int  streamID    = mEngine.pickSourceStream(changedMask, netDeltas);
+      long writeCount  = mBackend.getWriteCount();
+
+      if ( mEngine.handleVolumeChange(streamID) != VolumeSyncEngine.SENTINEL_NONE ) {
+         mSentinels++;
+      }
+
+      mSyncs++;
+
+      checkEqualized(streamID);
+
+      // Our writes are broadcast like any volume change, the observer checks the streams again
+      if ( mBackend.getWriteCount() != writeCount ) {
+         mScheduler.schedule(mEchoTask, 0);
+      }
+   } // End of onCoalescedChange
+
+   /**
+    * Writes the results of the last replay
+    * @param writer The writer to report to
+    */
+   public void writeReport(PrintWriter writer) {
+
+      writer.println("Events = "+mEventCount+", detected = "+mDetections+", syncs = "+mSyncs+", sentinels entered = "+mSentinels);
+      writer.println("Writes = "+mBackend.getWriteCount()+", backend calls = "+mBackend.getCallCount()
+            +", calls per sync = "+( ( mSyncs == 0 ) ? 0 : mBackend.getCallCount() / mSyncs));
+      writer.println("Feedback loops = "+mFeedbackLoops);
+      writer.println("Convergence (virtual ms): mean = "+mConvergence.getMean()
+            +", p50 = "+mConvergence.getPercentile(50)
+            +", p99 = "+mConvergence.getPercentile(99)
+            +", max = "+mConvergence.getMax());
+   }
+
+   /**
+    * @return the number of events in the trace
+    */
+   public int getEventCount() {
+      return mEventCount;
+   }
+
+   public static void main(String [] args) throws IOException {
+
+      String fileName   = null;
+      int [] maxVolumes = DEFAULT_MAX_VOLUMES;
+      int [] minVolumes = DEFAULT_MIN_VOLUMES;
+      long   window     = DEFAULT_WINDOW;
+      int    iterations = DEFAULT_ITERATIONS;
+
+      for ( int index = 0; index < args.length; ++index ) {
+
+         if ( "-max".equals(args[index]) && index + 1 < args.length ) {
+            maxVolumes = parseVolumes(args[++index]);
+         } else if ( "-min".equals(args[index]) && index + 1 < args.length ) {
+            minVolumes = parseVolumes(args[++index]);
+         } else if ( "-window".equals(args[index]) && index + 1 < args.length ) {
+            window = Long.parseLong(args[++index]);
+         } else if ( "-iterations".equals(args[index]) && index + 1 < args.length ) {
+            iterations = Integer.parseInt(args[++index]);
+         } else {
+            fileName = args[index];
+         }
+      }
+
+      ReplaySimulator simulator;
+
+      if ( fileName != null ) {
+         BufferedReader reader = new BufferedReader(new FileReader(fileName));
+         try {
+            simulator = fromTraceDump(reader, maxVolumes, window);
+         } finally {
+            reader.close();
+         }
+      } else {
+         simulator = synthetic(SYNTHETIC_EVENTS, maxVolumes, window, SYNTHETIC_SEED);
+      }
+
+      simulator.setMinVolumes(minVolumes);
+
+      PrintWriter writer = new PrintWriter(System.out);
+
+      // The results are deterministic, one replay reports them
+      simulator.replay();
+      simulator.writeReport(writer);
+
+      // Throughput over repeated replays
+      long startTime = System.nanoTime();
+
+      for ( int iteration = 0; iteration < iterations; ++iteration ) {
+         simulator.replay();
+      }
+
+      long elapsed = Math.max(1, System.nanoTime() - startTime);
+
+      writer.println("Throughput = "+String.format("%.2f", ( (double)simulator.getEventCount() * iterations * 1000.0 ) / elapsed)+" Mevents/s ("+iterations+" replays)");
+      writer.flush();
+   } // End of main
+
+   // "7,15,7" as one volume per stream
+   private static int [] parseVolumes(String list) {
+
+      String [] values  = list.split(",");
+      int []    volumes = new int[values.length];
+
+      for ( int streamID = 0; streamID < values.length; ++streamID ) {
+         volumes[streamID] = Integer.parseInt(values[streamID].trim());
+      }
+
+      return volumes;
+   }
+
+   private static long [] copyOf(long [] array, int length) {
+
+      long [] copy = new long[length];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+      return copy;
+   }
+
+   private static int [] copyOf(int [] array, int length) {
+
+      int [] copy = new int[length];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+      return copy;
+   }
+
+} // End of public class ReplaySimulator
@@ -0,0 +1,175 @@
+package com.csapps.equalvolume;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Checks that nothing keeps the short-lived parts of the pipeline alive. Every cycle builds a
+ * VolumeObserver against the long-lived parts (scheduler, sync engine, event bus), binds a fake
+ * activity as the sync listener (as MainActivity does through VolumeSyncService.setOnSyncListener),
+ * delivers a sync, then releases the observer and drops the activity without clearing the
+ * listener. After a GC, every observer and activity must be gone.
+ *
+ * Usage: RetentionCheck [-cycles 1000]
+ */
+public class RetentionCheck {
+
+   /* Constants */
+   static final private int [] MAX_VOLUMES    = { 7, 15, 7, 7, 5 };
+   static final private int    DEFAULT_CYCLES = 1000;
+   static final private int    ACTIVITY_BYTES = 64 * 1024; // Stands for the view tree
+   static final private int    GC_ATTEMPTS    = 20;
+
+   /**
+    * The volume change registrations of the platform: they hold the registered task strongly
+    * until it is unregistered, like the receivers registered with a Context
+    */
+   private static class PlatformChangeSource implements VolumeObserver.ChangeSource {
+
+      static final ArrayList<Runnable> sRegistered = new ArrayList<Runnable>();
+
+      private Runnable mOnChange = null;
+
+      @Override
+      public boolean register(Runnable onChange) {
+
+         mOnChange = onChange;
+         sRegistered.add(onChange);
+         return true;
+      }
+
+      @Override
+      public void unregister() {
+
+         sRegistered.remove(mOnChange);
+         mOnChange = null;
+      }
+   }
+
+   /**
+    * A fake activity: listens to the syncs and holds a large view tree
+    */
+   private static class FakeActivity implements SyncListenerSubscriber.OnSyncListener {
+
+      private final byte [] mViews = new byte[ACTIVITY_BYTES];
+      private int           mSyncs = 0;
+
+      @Override
+      public void onVolumesSynced(VolumeLevels volumeLevels, long syncTime) {
+         mSyncs++;
+         mViews[0] = (byte)volumeLevels.getLevel(0);
+      }
+   }
+
+   /* Long-lived parts, as owned by the service */
+   private InMemoryVolumeBackend  mBackend      = new InMemoryVolumeBackend(MAX_VOLUMES);
+   private VolumeSnapshot         mSnapshot     = new VolumeSnapshot(MAX_VOLUMES.length);
+   private VolumeSyncEngine       mEngine       = new VolumeSyncEngine(mBackend, mSnapshot);
+   private ManualTaskScheduler    mScheduler    = new ManualTaskScheduler();
+   private VolumeEventBus         mEventBus     = new VolumeEventBus();
+   private SyncListenerSubscriber mSyncListener = new SyncListenerSubscriber();
+
+   /* Results */
+   private ArrayList<WeakReference<Object>> mReferences = new ArrayList<WeakReference<Object>>();
+   private long                             mDelivered  = 0;
+   private int                              mRetained   = 0;
+
+   public RetentionCheck() {
+      mEventBus.subscribe(mSyncListener, null);
+   }
+
+   /**
+    * Builds and releases the short-lived parts
+    * @param cycles The number of cycles
+    */
+   public void run(int cycles) {
+
+      for ( int cycle = 0; cycle < cycles; ++cycle ) {
+         runCycle();
+      }
+
+      // The service outlives the activities, the listener is left set as a destroyed activity leaves it
+      mRetained = collect();
+   }
+
+   // One bind/unbind of the UI and one observer lifetime
+   private void runCycle() {
+
+      VolumeObserver observer = new VolumeObserver(new PlatformChangeSource(), mScheduler, mEngine, mEventBus);
+      FakeActivity   activity = new FakeActivity();
+
+      mSyncListener.setOnSyncListener(activity);
+
+      // A sync reaches the bound activity
+      long now = System.nanoTime();
+      mEventBus.publish(VolumeEvent.streamsSynced(0, VolumeSyncEngine.SENTINEL_NONE, 0, now, now, new VolumeLevels(mSnapshot, MAX_VOLUMES, VolumeSyncEngine.SENTINEL_NONE)));
+      mDelivered += activity.mSyncs;
+
+      observer.release();
+
+      mReferences.add(new WeakReference<Object>(observer));
+      mReferences.add(new WeakReference<Object>(activity));
+   }
+
+   // Runs the GC until the references are cleared, returns the number still reachable
+   private int collect() {
+
+      int retained = mReferences.size();
+
+      for ( int attempt = 0; attempt < GC_ATTEMPTS && retained > 0; ++attempt ) {
+
+         System.gc();
+
+         try {
+            Thread.sleep(10);
+         } catch (InterruptedException e) {
+            break;
+         }
+
+         retained = 0;
+         for ( WeakReference<Object> reference : mReferences ) {
+            if ( reference.get() != null ) {
+               retained++;
+            }
+         }
+      }
+
+      return retained;
+   } // End of collect
+
+   /**
+    * Writes the results
+    * @param writer The writer to report to
+    */
+   public void writeReport(PrintWriter writer) {
+
+      writer.println("Cycles = "+mReferences.size() / 2+", syncs delivered = "+mDelivered);
+      writer.println("Retained objects = "+mRetained+" (of "+mReferences.size()+")");
+      writer.println("Registrations left = "+PlatformChangeSource.sRegistered.size());
+   }
+
+   public static void main(String [] args) {
+
+      int cycles = DEFAULT_CYCLES;
+
+      for ( int index = 0; index + 1 < args.length; index += 2 ) {
+         if ( "-cycles".equals(args[index]) ) {
+            cycles = Integer.parseInt(args[index + 1]);
+         }
+      }
+
+      RetentionCheck check = new RetentionCheck();
+      check.run(cycles);
+
+      PrintWriter writer = new PrintWriter(System.out);
+      check.writeReport(writer);
+      writer.flush();
+
+      // Non-zero exit on a leak or a missed sync, for scripted runs
+      if ( check.mRetained != 0 || check.mDelivered != cycles || !PlatformChangeSource.sRegistered.isEmpty() ) {
+         System.exit(1);
+      }
+   } // End of main
+
+} // End of public class RetentionCheck
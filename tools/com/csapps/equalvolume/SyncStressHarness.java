@@ -0,0 +1,329 @@
+package com.csapps.equalvolume;
+
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fuzzes the sync pipeline under contention, in the manner of jcstress: user threads change the
+ * stream volumes "from outside" while the sync thread detects and applies the changes (the sync
+ * engine stays confined to it, as on the device) and a config thread toggles the synced streams.
+ * Each round ends with a probe change on the quiet pipeline, which must reach every stream, and a
+ * mute which the clamped stream (kept at 1 or more, like the voice call volume) must not undo.
+ *
+ * Reported:
+ *  - feedback loops: changes detected on a stream no external write touched (our own writes coming back)
+ *  - lost updates: external changes seen by a detection pass but not reported, probe levels not
+ *    propagated, or a snapshot diverged from the backend
+ *  - clamp rollbacks: streams synced back to the level the platform clamped our write to
+ *  - raced writes: our writes overridden by an external change before the detection saw them
+ *  - clamped writes: our writes read back at another level than the one written
+ *  - throughput of the external writes, detections and syncs under contention
+ *
+ * Usage: SyncStressHarness [-rounds 50] [-writes 2000] [-threads 2] [-seed 1]
+ */
+public class SyncStressHarness implements VolumeEventCoalescer.OnCoalescedChangeListener {
+
+   /* Constants */
+   static final private int [] MAX_VOLUMES      = { 7, 15, 7, 7, 5 };
+   static final private int    DEFAULT_ROUNDS   = 50;
+   static final private int    DEFAULT_WRITES   = 2000;
+   static final private int    DEFAULT_THREADS  = 2;
+   static final private int    CLAMPED_STREAM   = MAX_VOLUMES.length - 1;
+   static final private int    CLAMPED_MIN      = 1;
+
+   /* Pipeline (the engine, snapshot and coalescer belong to the sync thread) */
+   private InMemoryVolumeBackend mBackend   = null;
+   private VolumeSnapshot        mSnapshot  = null;
+   private VolumeSyncEngine      mEngine    = null;
+   private VolumeEventCoalescer  mCoalescer = null;
+
+   /* External write sequence of every stream, odd while a write is in flight */
+   private AtomicIntegerArray    mExternalSeq;
+   private int []                mSeenSeq;
+   private int []                mSeqBefore;
+   private int []                mLevelBefore;
+
+   /* Variables */
+   private volatile boolean      mStop            = false;
+   private long                  mExternalWrites  = 0;
+   private long                  mDetections      = 0;
+   private long                  mSyncs           = 0;
+   private long                  mFeedbackLoops   = 0;
+   private long                  mLostUpdates     = 0;
+   private long                  mClampRollbacks  = 0;
+   private long                  mToggles         = 0;
+
+   public SyncStressHarness() {
+
+      mBackend     = new InMemoryVolumeBackend(MAX_VOLUMES);
+      mSnapshot    = new VolumeSnapshot(MAX_VOLUMES.length);
+      mEngine      = new VolumeSyncEngine(mBackend, mSnapshot);
+      mBackend.setStreamMinVolume(CLAMPED_STREAM, CLAMPED_MIN);
+      mCoalescer   = new VolumeEventCoalescer(MAX_VOLUMES.length, new ManualTaskScheduler(), 0, this);
+      mExternalSeq = new AtomicIntegerArray(MAX_VOLUMES.length);
+      mSeenSeq     = new int[MAX_VOLUMES.length];
+      mSeqBefore   = new int[MAX_VOLUMES.length];
+      mLevelBefore = new int[MAX_VOLUMES.length];
+   }
+
+   /**
+    * Runs one round: contention, then the probe on the quiet pipeline
+    * @param writes The number of external writes per user thread
+    * @param threads The number of user threads (each owns a disjoint set of streams)
+    * @param random The source of the seeds and the probe
+    */
+   public void runRound(final int writes, final int threads, Random random) throws InterruptedException {
+
+      mStop = false;
+
+      Thread [] users = new Thread[threads];
+
+      for ( int index = 0; index < threads; ++index ) {
+
+         final int  owner = index;
+         final long seed  = random.nextLong();
+
+         users[index] = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+               Random userRandom = new Random(seed);
+
+               for ( int write = 0; write < writes; ++write ) {
+
+                  int streamID = owner + threads * userRandom.nextInt(( MAX_VOLUMES.length - owner + threads - 1 ) / threads);
+
+                  // Seqlock style: odd while the write is in flight, so the sync thread never
+                  // mistakes a change for its own because it saw the level before the count
+                  mExternalSeq.incrementAndGet(streamID);
+                  mBackend.setExternalVolume(streamID, userRandom.nextInt(MAX_VOLUMES[streamID] + 1));
+                  mExternalSeq.incrementAndGet(streamID);
+
+                  if ( userRandom.nextInt(8) == 0 ) {
+                     Thread.yield();
+                  }
+               }
+            }
+         });
+      }
+
+      final long toggleSeed = random.nextLong();
+
+      Thread toggler = new Thread(new Runnable() {
+
+         @Override
+         public void run() {
+
+            Random toggleRandom = new Random(toggleSeed);
+
+            while ( !mStop ) {
+               mEngine.setStreamEnabled(toggleRandom.nextInt(MAX_VOLUMES.length), toggleRandom.nextBoolean());
+               mToggles++;
+               Thread.yield();
+            }
+         }
+      });
+
+      Thread syncThread = new Thread(new Runnable() {
+
+         @Override
+         public void run() {
+            while ( !mStop ) {
+               detect();
+            }
+         }
+      });
+
+      syncThread.start();
+      toggler.start();
+
+      for ( Thread user : users ) {
+         user.start();
+      }
+
+      for ( Thread user : users ) {
+         user.join();
+      }
+
+      mExternalWrites += (long)writes * threads;
+      mStop = true;
+
+      toggler.join();
+      syncThread.join();
+
+      // The pipeline now belongs to this thread (the joins order the memory)
+      probe(random);
+   } // End of runRound
+
+   // One detection pass of the observer
+   private void detect() {
+
+      // The write counts around the pass bracket the writes the pass may have seen
+      for ( int streamID = 0; streamID < MAX_VOLUMES.length; ++streamID ) {
+         mSeqBefore  [streamID] = mExternalSeq.get(streamID);
+         mLevelBefore[streamID] = mSnapshot.getLevel(streamID);
+      }
+
+      int changedMask = mEngine.getChangedStreamMask();
+
+      // A completed external write, quiet during the pass, that moved the snapshot without being
+      // reported was taken for one of our writes: the streams will never follow it
+      for ( int streamID = 0; streamID < MAX_VOLUMES.length; ++streamID ) {
+
+         int seqBefore = mSeqBefore[streamID];
+
+         if ( ( changedMask & ( 1 << streamID ) ) == 0 && mSnapshot.getLevel(streamID) != mLevelBefore[streamID]
+              && seqBefore != mSeenSeq[streamID] && seqBefore == mExternalSeq.get(streamID) && ( seqBefore & 1 ) == 0 ) {
+            mLostUpdates++;
+            mSeenSeq[streamID] = seqBefore;
+         }
+      }
+
+      if ( changedMask == 0 ) {
+         return;
+      }
+
+      mDetections++;
+
+      for ( int streamMask = changedMask; streamMask != 0; streamMask &= streamMask - 1 ) {
+
+         int streamID  = Integer.numberOfTrailingZeros(streamMask);
+         int seqBefore = mSeqBefore[streamID];
+
+         // No external write started or finished since the last change seen on the stream
+         if ( seqBefore == mSeenSeq[streamID] && seqBefore == mExternalSeq.get(streamID) && ( seqBefore & 1 ) == 0 ) {
+            mFeedbackLoops++;
+         }
+
+         // A write finishing during the pass may not have been seen, keep the count from before it
+         mSeenSeq[streamID] = seqBefore;
+      }
+
+      mCoalescer.offer(changedMask, mSnapshot);
+   }
+
+   // Sets one stream on the quiet pipeline and checks every stream followed it
+   private void probe(Random random) {
+
+      mEngine.setStreamEnabled(0, true);
+      for ( int streamID = 1; streamID < MAX_VOLUMES.length; ++streamID ) {
+         mEngine.setStreamEnabled(streamID, true);
+      }
+
+      // Settle what the contention left behind, the second pass is the one our own writes
+      // trigger on the device
+      detect();
+      detect();
+
+      int streamID = random.nextInt(MAX_VOLUMES.length);
+      int level    = mSnapshot.getLevel(streamID);
+      int probe    = level;
+
+      // An in-between level, so no sentinel pins the streams
+      while ( probe == level ) {
+         probe = 1 + random.nextInt(MAX_VOLUMES[streamID] - 1);
+      }
+
+      mExternalSeq.addAndGet(streamID, 2);
+      mBackend.setExternalVolume(streamID, probe);
+
+      detect();
+      detect();
+
+      for ( int otherID = 0; otherID < MAX_VOLUMES.length; ++otherID ) {
+
+         int backendLevel = mBackend.getStreamVolume(otherID);
+         int expected     = ( otherID == streamID ) ? probe : mEngine.getLevelMap().getTargetLevel(streamID, probe, otherID);
+
+         if ( backendLevel != expected || backendLevel != mSnapshot.getLevel(otherID) ) {
+            mLostUpdates++;
+         }
+      }
+
+      // Mute another stream: the clamped stream stays at its minimum, which is not a change to sync
+      int muteID = random.nextInt(CLAMPED_STREAM);
+
+      mExternalSeq.addAndGet(muteID, 2);
+      mBackend.setExternalVolume(muteID, 0);
+
+      detect();
+      detect();
+
+      for ( int otherID = 0; otherID < MAX_VOLUMES.length; ++otherID ) {
+
+         int backendLevel = mBackend.getStreamVolume(otherID);
+         int expected     = ( otherID == CLAMPED_STREAM ) ? CLAMPED_MIN : 0;
+
+         if ( backendLevel != expected || backendLevel != mSnapshot.getLevel(otherID) ) {
+            mClampRollbacks++;
+         }
+      }
+   } // End of probe
+
+   @Override
+   public void onCoalescedChange(int changedMask, int [] netDeltas, int rawEvents) {
+
+      mEngine.handleVolumeChange(mEngine.pickSourceStream(changedMask, netDeltas));
+      mSyncs++;
+   }
+
+   /**
+    * Writes the results of the rounds run so far
+    * @param writer The writer to report to
+    * @param elapsedNanos The time spent in the rounds
+    */
+   public void writeReport(PrintWriter writer, long elapsedNanos) {
+
+      double seconds = Math.max(1, elapsedNanos) / 1e9;
+
+      writer.println("External writes = "+mExternalWrites+", detections = "+mDetections+", syncs = "+mSyncs+", config toggles = "+mToggles);
+      writer.println("Feedback loops = "+mFeedbackLoops);
+      writer.println("Lost updates = "+mLostUpdates+", clamp rollbacks = "+mClampRollbacks);
+      writer.println("Raced writes = "+mEngine.getSelfWriteTracker().getOverrideCount()+", clamped writes = "+mEngine.getSelfWriteTracker().getClampCount()
+            +", own writes seen = "+mEngine.getSelfWriteTracker().getSelfWriteCount());
+      writer.println("Throughput: "+String.format("%.0f", mExternalWrites / seconds)+" writes/s, "
+            +String.format("%.0f", mDetections / seconds)+" detections/s, "
+            +String.format("%.0f", mSyncs / seconds)+" syncs/s");
+   }
+
+   public static void main(String [] args) throws InterruptedException {
+
+      int  rounds  = DEFAULT_ROUNDS;
+      int  writes  = DEFAULT_WRITES;
+      int  threads = DEFAULT_THREADS;
+      long seed    = 1;
+
+      for ( int index = 0; index + 1 < args.length; index += 2 ) {
+
+         if ( "-rounds".equals(args[index]) ) {
+            rounds = Integer.parseInt(args[index + 1]);
+         } else if ( "-writes".equals(args[index]) ) {
+            writes = Integer.parseInt(args[index + 1]);
+         } else if ( "-threads".equals(args[index]) ) {
+            threads = Math.max(1, Math.min(MAX_VOLUMES.length, Integer.parseInt(args[index + 1])));
+         } else if ( "-seed".equals(args[index]) ) {
+            seed = Long.parseLong(args[index + 1]);
+         }
+      }
+
+      SyncStressHarness harness = new SyncStressHarness();
+      Random            random  = new Random(seed);
+      long              start   = System.nanoTime();
+
+      for ( int round = 0; round < rounds; ++round ) {
+         harness.runRound(writes, threads, random);
+      }
+
+      PrintWriter writer = new PrintWriter(System.out);
+      harness.writeReport(writer, System.nanoTime() - start);
+      writer.flush();
+
+      // Non-zero exit when the invariants broke, for scripted runs
+      if ( harness.mFeedbackLoops != 0 || harness.mLostUpdates != 0 || harness.mClampRollbacks != 0 ) {
+         System.exit(1);
+      }
+   } // End of main
+
+} // End of public class SyncStressHarness
@@ -0,0 +1,151 @@
+package com.csapps.equalvolume;
+
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Measures the cost of one volume event on a plain JVM: an external change of a random stream,
+ * the detection pass, the sync of the other streams and the detection pass our own writes trigger
+ * (the echo, which finds nothing to sync), against an in-memory backend. The sweep
+ * over the stream counts shows how the latency and the backend (binder) calls per event grow with
+ * the number of streams.
+ *
+ * Usage: VolumeSyncBenchmark [-streams 5,10,20] [-events 200000] [-warmup 50000] [-seed 1]
+ */
+public class VolumeSyncBenchmark {
+
+   /* Constants */
+   static final private int [] DEFAULT_STREAM_COUNTS = { 5, 10, 20 };
+   static final private int [] DEVICE_MAX_VOLUMES    = { 7, 15, 7, 7, 5 }; // Repeated up to the stream count
+   static final private int    DEFAULT_EVENTS        = 200000;
+   static final private int    DEFAULT_WARMUP        = 50000;
+
+   /* Variables */
+   private int []                mMaxVolumes;
+   private InMemoryVolumeBackend mBackend;
+   private VolumeSnapshot        mSnapshot;
+   private VolumeSyncEngine      mEngine;
+   private LatencyHistogram      mLatency;
+   private long                  mEvents;
+   private long                  mCalls;
+   private long                  mWrites;
+   private long                  mElapsed;
+
+   /**
+    * @param streamCount The number of streams to sync
+    */
+   public VolumeSyncBenchmark(int streamCount) {
+
+      mMaxVolumes = new int[streamCount];
+
+      for ( int streamID = 0; streamID < streamCount; ++streamID ) {
+         mMaxVolumes[streamID] = DEVICE_MAX_VOLUMES[streamID % DEVICE_MAX_VOLUMES.length];
+      }
+
+      mBackend  = new InMemoryVolumeBackend(mMaxVolumes);
+      mSnapshot = new VolumeSnapshot(streamCount);
+      mEngine   = new VolumeSyncEngine(mBackend, mSnapshot);
+   }
+
+   /**
+    * Runs the events, the counters and the latencies only cover this run
+    * @param events The number of events
+    * @param random The source of the changes
+    */
+   public void run(int events, Random random) {
+
+      mLatency = new LatencyHistogram();
+      mEvents  = 0;
+
+      mBackend.resetCallCount();
+
+      long runStart = System.nanoTime();
+
+      for ( int event = 0; event < events; ++event ) {
+
+         // The key press, not part of the measured cost
+         int streamID = random.nextInt(mMaxVolumes.length);
+         mBackend.setExternalVolume(streamID, random.nextInt(mMaxVolumes[streamID] + 1));
+
+         // The detection pass of the observer, then the sync of the changed stream
+         long startTime   = System.nanoTime();
+         int  changedMask = mEngine.getChangedStreamMask();
+
+         if ( changedMask != 0 ) {
+
+            mEngine.handleVolumeChange(Integer.numberOfTrailingZeros(changedMask));
+
+            // On the device our writes are broadcast too, and the observer checks the streams again
+            if ( mEngine.getLastEventIpcCount() != 0 ) {
+               mEngine.getChangedStreamMask();
+            }
+         }
+
+         mLatency.record(System.nanoTime() - startTime);
+         mEvents++;
+      }
+
+      mElapsed = System.nanoTime() - runStart;
+      mCalls   = mBackend.getCallCount();
+      mWrites  = mBackend.getWriteCount();
+   } // End of run
+
+   /**
+    * Writes the results of the last run
+    * @param writer The writer to report to
+    */
+   public void writeReport(PrintWriter writer) {
+
+      double events = Math.max(1, mEvents);
+
+      writer.println("Streams = "+mMaxVolumes.length+": calls per event = "+String.format("%.2f", mCalls / events)
+            +" (reads "+String.format("%.2f", ( mCalls - mWrites ) / events)+", writes "+String.format("%.2f", mWrites / events)+")");
+      writer.println("  latency (ns): mean = "+mLatency.getMean()
+            +", p50 = "+mLatency.getPercentile(50)
+            +", p90 = "+mLatency.getPercentile(90)
+            +", p99 = "+mLatency.getPercentile(99)
+            +", p99.9 = "+mLatency.getPercentile(99.9));
+      writer.println("  throughput = "+String.format("%.2f", ( events * 1000.0 ) / Math.max(1, mElapsed))+" Mevents/s");
+   }
+
+   public static void main(String [] args) {
+
+      int [] streamCounts = DEFAULT_STREAM_COUNTS;
+      int    events       = DEFAULT_EVENTS;
+      int    warmup       = DEFAULT_WARMUP;
+      long   seed         = 1;
+
+      for ( int index = 0; index + 1 < args.length; index += 2 ) {
+
+         if ( "-streams".equals(args[index]) ) {
+            String [] values = args[index + 1].split(",");
+            streamCounts = new int[values.length];
+            for ( int count = 0; count < values.length; ++count ) {
+               // The masks hold one bit per stream
+               streamCounts[count] = Math.max(1, Math.min(31, Integer.parseInt(values[count].trim())));
+            }
+         } else if ( "-events".equals(args[index]) ) {
+            events = Integer.parseInt(args[index + 1]);
+         } else if ( "-warmup".equals(args[index]) ) {
+            warmup = Integer.parseInt(args[index + 1]);
+         } else if ( "-seed".equals(args[index]) ) {
+            seed = Long.parseLong(args[index + 1]);
+         }
+      }
+
+      PrintWriter writer = new PrintWriter(System.out);
+
+      for ( int streamCount : streamCounts ) {
+
+         VolumeSyncBenchmark benchmark = new VolumeSyncBenchmark(streamCount);
+
+         // Let the JIT settle before measuring
+         benchmark.run(warmup, new Random(seed));
+         benchmark.run(events, new Random(seed));
+         benchmark.writeReport(writer);
+      }
+
+      writer.flush();
+   } // End of main
+
+} // End of public class VolumeSyncBenchmark